@@ -0,0 +1,164 @@
+package it.niedermann.android.markdown;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds ranges which are surrounded by an inline punctuation like <code>**</code> directly in a {@link CharSequence}.
+ * <p>
+ * Scans delimiter runs within a given region char by char, so neither the content needs to be copied nor a
+ * {@link java.util.regex.Pattern} needs to be compiled for each toggle.
+ * Each method behaves like the regular expression documented at it, applied to the given region.
+ */
+final class InlinePunctuationMatcher {
+
+    private static final char ASTERISK = '*';
+    private static final int MAX_ITALIC_DELIMITER_RUN = 3;
+    private static final Map<String, InlinePunctuationMatcher> MATCHERS = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final String punctuation;
+    private final char delimiter;
+    private final boolean italic;
+
+    private InlinePunctuationMatcher(@NonNull String punctuation) {
+        if (punctuation.isEmpty()) {
+            throw new IllegalArgumentException("punctuation must not be empty");
+        }
+        this.punctuation = punctuation;
+        this.delimiter = punctuation.charAt(0);
+        this.italic = punctuation.length() == 1 && delimiter == ASTERISK;
+    }
+
+    @NonNull
+    static InlinePunctuationMatcher of(@NonNull String punctuation) {
+        return MATCHERS.computeIfAbsent(punctuation, InlinePunctuationMatcher::new);
+    }
+
+    boolean isItalic() {
+        return italic;
+    }
+
+    /**
+     * Finds all non overlapping ranges like <code>P[^D]+P</code> where <code>P</code> is the punctuation and
+     * <code>D</code> its first character. Italic ranges may additionally be surrounded by up to two asterisks
+     * (<code>\*?\*?\*[^*]+\*\*?\*?</code>), so they don't match between bold and italic texts.
+     *
+     * @return start and end offsets of the matches as pairs
+     */
+    @NonNull
+    int[] findAll(@NonNull CharSequence s, int regionStart, int regionEnd) {
+        int[] matches = new int[4];
+        int count = 0;
+        int position = regionStart;
+        while (position < regionEnd) {
+            final int end = italic
+                    ? matchItalicAt(s, position, regionEnd)
+                    : matchAt(s, position, regionEnd);
+            if (end < 0) {
+                position++;
+            } else {
+                if (count + 2 > matches.length) {
+                    matches = Arrays.copyOf(matches, matches.length * 2);
+                }
+                matches[count++] = position;
+                matches[count++] = end;
+                position = end;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * @return the offset of the first occurrence of the punctuation which is completely within the region or <code>-1</code>
+     */
+    int indexOf(@NonNull CharSequence s, int regionStart, int regionEnd) {
+        for (int position = regionStart; position <= regionEnd - punctuation.length(); position++) {
+            if (startsWith(s, position, regionEnd, punctuation)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether the region contains a bold range which is not also italic, like <code>(^|[^*])\*\*[^*]*\*\*([^*]|$)</code>
+     */
+    static boolean containsBold(@NonNull CharSequence s, int regionStart, int regionEnd) {
+        for (int start = regionStart; start + 1 < regionEnd; start++) {
+            if (getDelimiterRunLength(s, start, regionEnd, ASTERISK) < 2
+                    || (start > regionStart && s.charAt(start - 1) == ASTERISK)) {
+                continue;
+            }
+            final int closing = indexOf(s, start + 2, regionEnd, ASTERISK);
+            if (closing >= 0 && closing + 1 < regionEnd && s.charAt(closing + 1) == ASTERISK
+                    && (closing + 2 == regionEnd || s.charAt(closing + 2) != ASTERISK)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the end of the match starting at {@param start} or <code>-1</code>
+     */
+    private int matchAt(@NonNull CharSequence s, int start, int regionEnd) {
+        if (!startsWith(s, start, regionEnd, punctuation)) {
+            return -1;
+        }
+        final int contentStart = start + punctuation.length();
+        final int closing = indexOf(s, contentStart, regionEnd, delimiter);
+        if (closing <= contentStart || !startsWith(s, closing, regionEnd, punctuation)) {
+            return -1;
+        }
+        return closing + punctuation.length();
+    }
+
+    /**
+     * @return the end of the italic match starting at {@param start} or <code>-1</code>
+     */
+    private static int matchItalicAt(@NonNull CharSequence s, int start, int regionEnd) {
+        final int opening = getDelimiterRunLength(s, start, regionEnd, ASTERISK);
+        if (opening == 0 || opening > MAX_ITALIC_DELIMITER_RUN) {
+            return -1;
+        }
+        final int contentStart = start + opening;
+        final int closing = indexOf(s, contentStart, regionEnd, ASTERISK);
+        if (closing <= contentStart) {
+            return -1;
+        }
+        return closing + Math.min(getDelimiterRunLength(s, closing, regionEnd, ASTERISK), MAX_ITALIC_DELIMITER_RUN);
+    }
+
+    private static int getDelimiterRunLength(@NonNull CharSequence s, int start, int regionEnd, char delimiter) {
+        int end = start;
+        while (end < regionEnd && s.charAt(end) == delimiter) {
+            end++;
+        }
+        return end - start;
+    }
+
+    private static int indexOf(@NonNull CharSequence s, int start, int regionEnd, char c) {
+        for (int position = start; position < regionEnd; position++) {
+            if (s.charAt(position) == c) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(@NonNull CharSequence s, int start, int regionEnd, @NonNull String prefix) {
+        if (start < 0 || start + prefix.length() > regionEnd) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
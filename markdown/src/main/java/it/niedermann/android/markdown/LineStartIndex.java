@@ -0,0 +1,204 @@
+package it.niedermann.android.markdown;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of all lines of a text which are kept up to date by the {@link TextWatcher} callbacks of this text.
+ * <p>
+ * Line lookups are binary searches and do not need to copy or scan the text.
+ * Changes without line breaks shift the offsets of the following lines lazily, so continuous typing within one line
+ * does not touch the offsets of all following lines.
+ */
+public final class LineStartIndex implements TextWatcher {
+
+    private int[] lineStarts = new int[16];
+    private int lineCount;
+    private int length;
+    /**
+     * The offsets of all lines starting from this index still need to be shifted by {@link #pendingDelta}
+     */
+    private int pendingIndex;
+    private int pendingDelta;
+
+    public LineStartIndex() {
+        this("");
+    }
+
+    public LineStartIndex(@NonNull CharSequence text) {
+        reset(text);
+    }
+
+    /**
+     * Indexes the given {@param text} from scratch.
+     */
+    public void reset(@NonNull CharSequence text) {
+        length = text.length();
+        lineCount = 1;
+        lineStarts[0] = 0;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                ensureCapacity(lineCount + 1);
+                lineStarts[lineCount++] = i + 1;
+            }
+        }
+        pendingIndex = lineCount;
+        pendingDelta = 0;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        // Nothing to do
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (start < 0 || before < 0 || count < 0 || start + before > length || s.length() != length - before + count) {
+            // We missed a change
+            reset(s);
+            return;
+        }
+
+        final int delta = count - before;
+        // Lines starting within the replaced range have been removed
+        final int firstAffectedLine = getLineOfOffset(start) + 1;
+        int firstUnaffectedLine = firstAffectedLine;
+        while (firstUnaffectedLine < lineCount && getLineStart(firstUnaffectedLine) <= start + before) {
+            firstUnaffectedLine++;
+        }
+        int insertedLines = 0;
+        for (int i = start; i < start + count; i++) {
+            if (s.charAt(i) == '\n') {
+                insertedLines++;
+            }
+        }
+
+        length += delta;
+        if (firstUnaffectedLine == firstAffectedLine && insertedLines == 0) {
+            shift(firstAffectedLine, delta);
+            return;
+        }
+
+        applyPendingDelta();
+        final int newLineCount = lineCount - (firstUnaffectedLine - firstAffectedLine) + insertedLines;
+        ensureCapacity(newLineCount);
+        System.arraycopy(lineStarts, firstUnaffectedLine, lineStarts, firstAffectedLine + insertedLines, lineCount - firstUnaffectedLine);
+        int line = firstAffectedLine;
+        for (int i = start; i < start + count; i++) {
+            if (s.charAt(i) == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+        for (; line < newLineCount; line++) {
+            lineStarts[line] += delta;
+        }
+        lineCount = newLineCount;
+        pendingIndex = lineCount;
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        // Nothing to do
+    }
+
+    /**
+     * @return the length of the indexed text
+     */
+    public int length() {
+        return length;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the offset of the first character of the given {@param line}
+     */
+    public int getLineStart(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("line was " + line + " but line count was only " + lineCount);
+        }
+        return line >= pendingIndex ? lineStarts[line] + pendingDelta : lineStarts[line];
+    }
+
+    /**
+     * @return the offset of the line break terminating the given {@param line} or the text length for the last line
+     */
+    public int getLineEnd(int line) {
+        return line + 1 < lineCount ? getLineStart(line + 1) - 1 : length;
+    }
+
+    /**
+     * @return the line which contains the given {@param offset}
+     */
+    public int getLineOfOffset(int offset) {
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("offset was " + offset + " but text length was only " + length);
+        }
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (getLineStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @see MarkdownUtil#getStartOfLine(CharSequence, int)
+     */
+    public int getStartOfLine(int offset) {
+        return getLineStart(getLineOfOffset(offset));
+    }
+
+    /**
+     * @see MarkdownUtil#getEndOfLine(CharSequence, int)
+     */
+    public int getEndOfLine(int offset) {
+        return getLineEnd(getLineOfOffset(offset));
+    }
+
+    private void shift(int fromLine, int delta) {
+        if (delta == 0 || fromLine >= lineCount) {
+            return;
+        }
+        if (pendingDelta == 0 || pendingIndex >= lineCount) {
+            pendingIndex = fromLine;
+            pendingDelta = delta;
+        } else if (fromLine >= pendingIndex) {
+            for (int line = pendingIndex; line < fromLine; line++) {
+                lineStarts[line] += pendingDelta;
+            }
+            pendingIndex = fromLine;
+            pendingDelta += delta;
+        } else {
+            for (int line = fromLine; line < pendingIndex; line++) {
+                lineStarts[line] += delta;
+            }
+            pendingDelta += delta;
+        }
+    }
+
+    private void applyPendingDelta() {
+        for (int line = pendingIndex; line < lineCount; line++) {
+            lineStarts[line] += pendingDelta;
+        }
+        pendingIndex = lineCount;
+        pendingDelta = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, Math.max(capacity, lineStarts.length * 2));
+        }
+    }
+}
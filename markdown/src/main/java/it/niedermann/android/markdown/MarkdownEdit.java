@@ -0,0 +1,110 @@
+package it.niedermann.android.markdown;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * A single change of the markdown source of a {@link MarkdownEditor}. Applying all changes in the order of their
+ * {@link #getVersion()} to the initial markdown results in the current markdown, which allows to persist them
+ * incrementally.
+ */
+public final class MarkdownEdit {
+
+    private final long version;
+    private final int offset;
+    private final int removedLength;
+    @NonNull
+    private final String inserted;
+    @Nullable
+    private final Supplier<String> markdownSupplier;
+    @Nullable
+    private String markdown;
+
+    /**
+     * @param markdownSupplier provides the whole markdown after this change or throws an {@link IllegalStateException}
+     *                         in case the markdown changed again in the meantime. <code>null</code> if this change is
+     *                         followed by further changes which already have been applied, e. g. by an automatic
+     *                         continuation of a list
+     */
+    public MarkdownEdit(long version, int offset, int removedLength, @NonNull String inserted, @Nullable Supplier<String> markdownSupplier) {
+        this.version = version;
+        this.offset = offset;
+        this.removedLength = removedLength;
+        this.inserted = inserted;
+        this.markdownSupplier = markdownSupplier;
+    }
+
+    /**
+     * @return a number which increases by one with each change of the same {@link MarkdownEditor}
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the position at which characters have been removed and inserted
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getRemovedLength() {
+        return removedLength;
+    }
+
+    @NonNull
+    public String getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return whether {@link #getMarkdownString()} can provide the whole markdown after this change, which is not the
+     * case if this change is followed by further changes which already have been applied, e. g. by an automatic
+     * continuation of a list
+     */
+    public boolean isMarkdownStringAvailable() {
+        return markdown != null || markdownSupplier != null;
+    }
+
+    /**
+     * Creates the whole markdown after this change on the first call.
+     *
+     * @throws IllegalStateException if the markdown is not {@link #isMarkdownStringAvailable() available} or if it is
+     *                               requested for the first time after it changed again
+     */
+    @NonNull
+    public String getMarkdownString() {
+        if (markdown == null) {
+            if (markdownSupplier == null) {
+                throw new IllegalStateException("Markdown of version " + version + " is not available, because it has been followed by further changes");
+            }
+            markdown = markdownSupplier.get();
+        }
+        return markdown;
+    }
+
+    /**
+     * @return the given {@param markdown} with this change applied
+     */
+    @NonNull
+    public String applyTo(@NonNull CharSequence markdown) {
+        return new StringBuilder(markdown.length() - removedLength + inserted.length())
+                .append(markdown, 0, offset)
+                .append(inserted)
+                .append(markdown, offset + removedLength, markdown.length())
+                .toString();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MarkdownEdit{" +
+                "version=" + version +
+                ", offset=" + offset +
+                ", removedLength=" + removedLength +
+                ", inserted='" + inserted + '\'' +
+                '}';
+    }
+}
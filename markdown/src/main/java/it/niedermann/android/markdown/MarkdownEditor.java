@@ -64,6 +64,16 @@ public interface MarkdownEditor {
      */
     void setMarkdownStringChangedListener(@Nullable Consumer<CharSequence> listener);
 
+    /**
+     * Unlike {@link #setMarkdownStringChangedListener(Consumer)}, the {@param listener} receives only the changed part of
+     * the markdown and the whole markdown is only created on demand. Will remove a previously set {@link Consumer}.
+     *
+     * @param listener a {@link Consumer} which will receive each {@link MarkdownEdit} in order
+     */
+    default void setMarkdownEditListener(@Nullable Consumer<MarkdownEdit> listener) {
+        Log.w(TAG, LOG_WARNING_UNSUPPORTED_FEATURE);
+    }
+
     void setEnabled(boolean enabled);
 
     /**
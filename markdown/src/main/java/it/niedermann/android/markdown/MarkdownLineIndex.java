@@ -0,0 +1,280 @@
+package it.niedermann.android.markdown;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+import it.niedermann.android.markdown.model.EListType;
+
+/**
+ * Immutable snapshot of the line structure of a markdown source, created by a single scan.
+ * <p>
+ * Records the start offset of each line, the line ranges of fenced code blocks and the position of each checkbox
+ * which gets rendered by Markwon (checkboxes in fenced code blocks and checkboxes without content are skipped).
+ * This allows checkbox operations to address the affected characters directly instead of splitting and joining the
+ * whole document.
+ */
+public final class MarkdownLineIndex {
+
+    private static final char CODE_FENCE = '`';
+    private static final int CODE_FENCE_MIN_LENGTH = 3;
+    private static final int CHECKBOX_LENGTH = EListType.DASH.checkboxChecked.length();
+
+    private final int length;
+    private final int lineCount;
+    private final int[] lineStarts;
+    /**
+     * Pairs of first and last line (both inclusive) of each fenced code block
+     */
+    private final int[] fencedLines;
+    private final int fencedBlockCount;
+    private final int checkboxCount;
+    private final int[] checkboxLines;
+    /**
+     * Offset of the character between the brackets of each checkbox, e. g. <code>x</code> in <code>- [x]</code>
+     */
+    private final int[] checkboxOffsets;
+    private final boolean[] checkboxChecked;
+
+    private MarkdownLineIndex(@NonNull CharSequence content) {
+        this.length = content.length();
+
+        int[] lineStarts = new int[16];
+        int[] fencedLines = new int[4];
+        int[] checkboxLines = new int[8];
+        int[] checkboxOffsets = new int[8];
+        boolean[] checkboxChecked = new boolean[8];
+
+        int lineCount = 0;
+        int fencedBlockCount = 0;
+        int checkboxCount = 0;
+        boolean isInFencedCodeBlock = false;
+        int fencedCodeBlockSigns = 0;
+
+        int lineStart = 0;
+        while (lineStart <= length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && content.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            }
+            lineStarts[lineCount] = lineStart;
+
+            final int fence = getCodeFenceLength(content, lineStart, lineEnd);
+            if (fence > 0) {
+                if (isInFencedCodeBlock) {
+                    if (fence == fencedCodeBlockSigns) {
+                        isInFencedCodeBlock = false;
+                        fencedCodeBlockSigns = 0;
+                        fencedLines[fencedBlockCount * 2 + 1] = lineCount;
+                        fencedBlockCount++;
+                    }
+                } else {
+                    isInFencedCodeBlock = true;
+                    fencedCodeBlockSigns = fence;
+                    if ((fencedBlockCount + 1) * 2 > fencedLines.length) {
+                        fencedLines = Arrays.copyOf(fencedLines, fencedLines.length * 2);
+                    }
+                    fencedLines[fencedBlockCount * 2] = lineCount;
+                }
+            } else if (!isInFencedCodeBlock) {
+                final int checkboxOffset = getCheckboxOffset(content, lineStart, lineEnd);
+                if (checkboxOffset >= 0) {
+                    if (checkboxCount == checkboxLines.length) {
+                        checkboxLines = Arrays.copyOf(checkboxLines, checkboxCount * 2);
+                        checkboxOffsets = Arrays.copyOf(checkboxOffsets, checkboxCount * 2);
+                        checkboxChecked = Arrays.copyOf(checkboxChecked, checkboxCount * 2);
+                    }
+                    checkboxLines[checkboxCount] = lineCount;
+                    checkboxOffsets[checkboxCount] = checkboxOffset;
+                    checkboxChecked[checkboxCount] = content.charAt(checkboxOffset) != ' ';
+                    checkboxCount++;
+                }
+            }
+
+            lineCount++;
+            lineStart = lineEnd + 1;
+        }
+
+        if (isInFencedCodeBlock) {
+            // An unclosed fence spans until the end of the document
+            fencedLines[fencedBlockCount * 2 + 1] = lineCount - 1;
+            fencedBlockCount++;
+        }
+
+        this.lineCount = lineCount;
+        this.lineStarts = lineStarts;
+        this.fencedLines = fencedLines;
+        this.fencedBlockCount = fencedBlockCount;
+        this.checkboxCount = checkboxCount;
+        this.checkboxLines = checkboxLines;
+        this.checkboxOffsets = checkboxOffsets;
+        this.checkboxChecked = checkboxChecked;
+    }
+
+    @NonNull
+    public static MarkdownLineIndex of(@NonNull CharSequence content) {
+        return new MarkdownLineIndex(content);
+    }
+
+    /**
+     * @return the length of the indexed content
+     */
+    public int length() {
+        return length;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the offset of the first character of the given {@param line}
+     */
+    public int getLineStart(int line) {
+        checkLine(line);
+        return lineStarts[line];
+    }
+
+    /**
+     * @return the offset of the line break terminating the given {@param line} or the content length for the last line
+     */
+    public int getLineEnd(int line) {
+        checkLine(line);
+        return line + 1 < lineCount ? lineStarts[line + 1] - 1 : length;
+    }
+
+    /**
+     * @return the line which contains the given {@param offset}
+     */
+    public int getLineOfOffset(int offset) {
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("offset was " + offset + " but content length was only " + length);
+        }
+        final int result = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return result >= 0 ? result : -result - 2;
+    }
+
+    /**
+     * @return whether the given {@param line} is part of a fenced code block, including the fences
+     */
+    public boolean isInFencedCodeBlock(int line) {
+        checkLine(line);
+        int low = 0;
+        int high = fencedBlockCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (fencedLines[mid * 2 + 1] < line) {
+                low = mid + 1;
+            } else if (fencedLines[mid * 2] > line) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of checkboxes which get rendered
+     */
+    public int getCheckboxCount() {
+        return checkboxCount;
+    }
+
+    public int getCheckboxLine(int checkboxIndex) {
+        checkCheckbox(checkboxIndex);
+        return checkboxLines[checkboxIndex];
+    }
+
+    /**
+     * @return the offset of the character between the brackets of the checkbox at {@param checkboxIndex}
+     */
+    public int getCheckboxOffset(int checkboxIndex) {
+        checkCheckbox(checkboxIndex);
+        return checkboxOffsets[checkboxIndex];
+    }
+
+    public boolean isCheckboxChecked(int checkboxIndex) {
+        checkCheckbox(checkboxIndex);
+        return checkboxChecked[checkboxIndex];
+    }
+
+    /**
+     * @return the index of the checkbox in the given {@param line} or <code>-1</code> if there is no rendered checkbox in this line
+     */
+    public int getCheckboxIndexOfLine(int line) {
+        checkLine(line);
+        final int result = Arrays.binarySearch(checkboxLines, 0, checkboxCount, line);
+        return result >= 0 ? result : -1;
+    }
+
+    /**
+     * @return the index of the checkbox whose bracket content is at {@param offset} or <code>-1</code> if there is no rendered checkbox at this offset
+     */
+    public int getCheckboxIndexOfOffset(int offset) {
+        final int result = Arrays.binarySearch(checkboxOffsets, 0, checkboxCount, offset);
+        return result >= 0 ? result : -1;
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("line was " + line + " but line count was only " + lineCount);
+        }
+    }
+
+    private void checkCheckbox(int checkboxIndex) {
+        if (checkboxIndex < 0 || checkboxIndex >= checkboxCount) {
+            throw new IndexOutOfBoundsException("checkbox index was " + checkboxIndex + " but checkbox count was only " + checkboxCount);
+        }
+    }
+
+    /**
+     * @return the number of backticks if the line starts with a code fence, otherwise <code>0</code>
+     */
+    private static int getCodeFenceLength(@NonNull CharSequence content, int lineStart, int lineEnd) {
+        int position = lineStart;
+        while (position < lineEnd && content.charAt(position) == CODE_FENCE) {
+            position++;
+        }
+        final int fenceLength = position - lineStart;
+        return fenceLength >= CODE_FENCE_MIN_LENGTH ? fenceLength : 0;
+    }
+
+    /**
+     * Equivalent to {@link MarkdownUtil#isCheckboxLine(String)} without creating a {@link String} of the line.
+     *
+     * @return the offset of the character between the brackets of the checkbox or <code>-1</code> if the line is no checkbox line
+     */
+    private static int getCheckboxOffset(@NonNull CharSequence content, int lineStart, int lineEnd) {
+        int trimmedStart = lineStart;
+        while (trimmedStart < lineEnd && content.charAt(trimmedStart) <= ' ') {
+            trimmedStart++;
+        }
+        int trimmedEnd = lineEnd;
+        while (trimmedEnd > trimmedStart && content.charAt(trimmedEnd - 1) <= ' ') {
+            trimmedEnd--;
+        }
+        if (trimmedEnd - trimmedStart <= CHECKBOX_LENGTH) {
+            return -1;
+        }
+        final char listSymbol = content.charAt(trimmedStart);
+        for (final var listType : EListType.values()) {
+            if (listType.listSymbol.charAt(0) == listSymbol) {
+                if (content.charAt(trimmedStart + 1) == ' '
+                        && content.charAt(trimmedStart + 2) == '['
+                        && content.charAt(trimmedStart + 4) == ']') {
+                    final char state = content.charAt(trimmedStart + 3);
+                    if (state == ' ' || state == 'x' || state == 'X') {
+                        return trimmedStart + 3;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
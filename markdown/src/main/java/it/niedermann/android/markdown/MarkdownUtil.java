@@ -2,46 +2,44 @@ package it.niedermann.android.markdown;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Paint;
 import android.os.Build;
 import android.text.Editable;
 import android.text.Spannable;
 import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
-import android.text.Spanned;
 import android.text.TextUtils;
-import android.text.style.QuoteSpan;
 import android.util.Log;
-import android.util.Pair;
 import android.widget.RemoteViews.RemoteView;
 import android.widget.TextView;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.content.ContextCompat;
-import androidx.core.text.HtmlCompat;
+import androidx.annotation.WorkerThread;
 
 import com.nextcloud.android.common.ui.theme.utils.AndroidViewThemeUtils;
 
 import org.commonmark.parser.Parser;
-import org.commonmark.renderer.html.HtmlRenderer;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import io.noties.markwon.Markwon;
 import it.niedermann.android.markdown.model.EListType;
 import it.niedermann.android.markdown.model.SearchSpan;
+import it.niedermann.android.markdown.plaintext.PlainTextVisitor;
 import it.niedermann.android.markdown.remoteviews.RemoteViewElement;
+import it.niedermann.android.markdown.remoteviews.RemoteViewsRenderer;
+import it.niedermann.android.markdown.search.CompiledSearch;
 
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 public class MarkdownUtil {
@@ -49,18 +47,23 @@ public class MarkdownUtil {
     private static final String TAG = MarkdownUtil.class.getSimpleName();
 
     private static final Parser PARSER = Parser.builder().build();
-    private static final HtmlRenderer RENDERER = HtmlRenderer.builder().softbreak("<br>").build();
 
-    private static final Pattern PATTERN_CODE_FENCE = Pattern.compile("^(`{3,})");
     private static final Pattern PATTERN_ORDERED_LIST_ITEM = Pattern.compile("^(\\d+)\\.\\s.+$");
     private static final Pattern PATTERN_ORDERED_LIST_ITEM_EMPTY = Pattern.compile("^(\\d+)\\.\\s$");
     private static final Pattern PATTERN_MARKDOWN_LINK = Pattern.compile("\\[(.+)?]\\(([^ ]+?)?( \"(.+)\")?\\)");
+    private static final Pattern PATTERN_LINK_REFERENCE_DEFINITION = Pattern.compile("^ {0,3}\\[[^\\]\n]+]:", Pattern.MULTILINE);
 
-    private static final String PATTERN_QUOTE_BOLD_PUNCTUATION = Pattern.quote("**");
+    /**
+     * Markdown sources of excerpts are expected to be at most this factor longer than the resulting plain text
+     */
+    private static final int EXCERPT_SOURCE_FACTOR = 4;
 
     private static final Optional<String> CHECKBOX_CHECKED_EMOJI = getCheckboxEmoji(true);
     private static final Optional<String> CHECKBOX_UNCHECKED_EMOJI = getCheckboxEmoji(false);
 
+    @Nullable
+    private static volatile SharedRemoteViewsRenderer sharedRemoteViewsRenderer;
+
     private MarkdownUtil() {
         // Util class
     }
@@ -76,57 +79,26 @@ public class MarkdownUtil {
      * @noinspection unused
      */
     public static ArrayList<RemoteViewElement> getRenderedElementsForRemoteView(@NonNull Context context, @NonNull String content) {
-
-        ArrayList<RemoteViewElement> remoteViews = new ArrayList<>();
-        StringBuilder currentLineBlock = new StringBuilder();
+        final var index = MarkdownLineIndex.of(content);
+        final var remoteViews = new ArrayList<RemoteViewElement>(index.getCheckboxCount() * 2);
         int startLine = 0;
-
-        final String[] lines = content.split("\n");
-        boolean isInFencedCodeBlock = false;
-        int fencedCodeBlockSigns = 0;
-        for (int i = 0; i < lines.length; i++) {
-            final var matcher = PATTERN_CODE_FENCE.matcher(lines[i]);
-            if (matcher.find()) {
-                final String fence = matcher.group(1);
-                if (fence != null) {
-                    int currentFencedCodeBlockSigns = fence.length();
-                    if (isInFencedCodeBlock) {
-                        if (currentFencedCodeBlockSigns == fencedCodeBlockSigns) {
-                            isInFencedCodeBlock = false;
-                            fencedCodeBlockSigns = 0;
-                        }
-                    } else {
-                        isInFencedCodeBlock = true;
-                        fencedCodeBlockSigns = currentFencedCodeBlockSigns;
-                    }
-                }
-            }
-            if (!isInFencedCodeBlock) {
-                if (isCheckboxLine(lines[i])) {
-                    // if the first line is a checkbox, this will be an empty markdown block. It will also end in line -1.
-                    var endline = i - 1;
-                    if (endline < 0) {
-                        endline = 0;
-                    }
-                    remoteViews.add(new RemoteViewElement(RemoteViewElement.Type.TEXT, currentLineBlock.toString(), startLine, endline));
-                    currentLineBlock = new StringBuilder();
-                    startLine = i + 1;
-
-                    boolean isChecked = false;
-                    for (EListType listType : EListType.values()) {
-                        if (lineStartsWithCheckedCheckbox(lines[i], listType)) {
-                            isChecked = true;
-                        }
-                    }
-                    if (isChecked) {
-                        remoteViews.add(new RemoteViewElement(RemoteViewElement.Type.CHECKBOX_CHECKED, lines[i], i, i));
-                    } else {
-                        remoteViews.add(new RemoteViewElement(RemoteViewElement.Type.CHECKBOX_UNCHECKED, lines[i], i, i));
-                    }
-                    continue;
-                }
-            }
-            currentLineBlock.append(lines[i]).append("\n");
+        int blockStart = 0;
+
+        for (int checkboxIndex = 0; checkboxIndex < index.getCheckboxCount(); checkboxIndex++) {
+            final int line = index.getCheckboxLine(checkboxIndex);
+            final int lineStart = index.getLineStart(line);
+            final int lineEnd = index.getLineEnd(line);
+
+            // if the first line is a checkbox, this will be an empty markdown block. It will also end in line -1.
+            final int endLine = Math.max(line - 1, 0);
+            remoteViews.add(new RemoteViewElement(RemoteViewElement.Type.TEXT, content.substring(blockStart, lineStart), startLine, endLine));
+            startLine = line + 1;
+            blockStart = Math.min(lineEnd + 1, content.length());
+
+            final var type = index.isCheckboxChecked(checkboxIndex)
+                    ? RemoteViewElement.Type.CHECKBOX_CHECKED
+                    : RemoteViewElement.Type.CHECKBOX_UNCHECKED;
+            remoteViews.add(new RemoteViewElement(type, content.substring(lineStart, lineEnd), line, line));
         }
         return remoteViews;
     }
@@ -135,36 +107,29 @@ public class MarkdownUtil {
      * {@link RemoteView}s have a limited subset of supported classes to maintain compatibility with many different launchers.
      * <p>
      * Since {@link Markwon} makes heavy use of custom spans, this won't look nice e. g. at app widgets, because they simply won't be rendered.
-     * Therefore we currently use {@link HtmlCompat} to filter supported spans from the output of {@link HtmlRenderer} as an intermediate step.
+     * Therefore we use the {@link RemoteViewsRenderer} which only creates supported spans.
+     * Use an own {@link RemoteViewsRenderer} instance with a cache when rendering the same contents repeatedly.
      *
      * @noinspection unused
      */
     public static CharSequence renderForRemoteView(@NonNull Context context, @NonNull String content) {
-        // Create HTML string from Markup
-        final String html = RENDERER.render(PARSER.parse(replaceCheckboxesWithEmojis(content)));
-
-        // Create Spanned from HTML, with special handling for ordered list items
-        final Spanned spanned = HtmlCompat.fromHtml(ListTagHandler.prepareTagHandling(html), 0, null, new ListTagHandler());
-
-        // Enhance colors and margins of the Spanned
-        return customizeQuoteSpanAppearance(context, spanned, 5, 30);
+        return getRemoteViewsRenderer(context).render(content);
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private static Spanned customizeQuoteSpanAppearance(@NonNull Context context, @NonNull Spanned input, int stripeWidth, int gapWidth) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
-            return input;
-        }
-        final var ssb = new SpannableStringBuilder(input);
-        final var originalQuoteSpans = ssb.getSpans(0, ssb.length(), QuoteSpan.class);
-        @ColorInt final int colorBlockQuote = ContextCompat.getColor(context, R.color.block_quote);
-        for (final var originalQuoteSpan : originalQuoteSpans) {
-            final int start = ssb.getSpanStart(originalQuoteSpan);
-            final int end = ssb.getSpanEnd(originalQuoteSpan);
-            ssb.removeSpan(originalQuoteSpan);
-            ssb.setSpan(new QuoteSpan(colorBlockQuote, stripeWidth, gapWidth), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    /**
+     * @return the {@link RemoteViewsRenderer} of the application context of the given {@param context}, which gets
+     * replaced when the night mode changes, because the renderer is bound to the colors of its {@link Context}
+     */
+    @NonNull
+    private static RemoteViewsRenderer getRemoteViewsRenderer(@NonNull Context context) {
+        final var applicationContext = context.getApplicationContext();
+        final int nightMode = applicationContext.getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        var shared = sharedRemoteViewsRenderer;
+        if (shared == null || shared.context() != applicationContext || shared.nightMode() != nightMode) {
+            shared = new SharedRemoteViewsRenderer(applicationContext, nightMode, new RemoteViewsRenderer(applicationContext));
+            sharedRemoteViewsRenderer = shared;
         }
-        return ssb;
+        return shared.renderer();
     }
 
     @NonNull
@@ -211,33 +176,21 @@ public class MarkdownUtil {
      */
     @NonNull
     private static String runForEachCheckbox(@NonNull String markdownString, @NonNull Function<String, String> map) {
-        final String[] lines = markdownString.split("\n");
-        boolean isInFencedCodeBlock = false;
-        int fencedCodeBlockSigns = 0;
-        for (int i = 0; i < lines.length; i++) {
-            final var matcher = PATTERN_CODE_FENCE.matcher(lines[i]);
-            if (matcher.find()) {
-                final String fence = matcher.group(1);
-                if (fence != null) {
-                    int currentFencedCodeBlockSigns = fence.length();
-                    if (isInFencedCodeBlock) {
-                        if (currentFencedCodeBlockSigns == fencedCodeBlockSigns) {
-                            isInFencedCodeBlock = false;
-                            fencedCodeBlockSigns = 0;
-                        }
-                    } else {
-                        isInFencedCodeBlock = true;
-                        fencedCodeBlockSigns = currentFencedCodeBlockSigns;
-                    }
-                }
-            }
-            if (!isInFencedCodeBlock) {
-                if (isCheckboxLine(lines[i])) {
-                    lines[i] = map.apply(lines[i]);
-                }
-            }
+        final var index = MarkdownLineIndex.of(markdownString);
+        if (index.getCheckboxCount() == 0) {
+            return markdownString;
+        }
+        final var builder = new StringBuilder(markdownString.length());
+        int copiedUntil = 0;
+        for (int checkboxIndex = 0; checkboxIndex < index.getCheckboxCount(); checkboxIndex++) {
+            final int line = index.getCheckboxLine(checkboxIndex);
+            final int lineStart = index.getLineStart(line);
+            final int lineEnd = index.getLineEnd(line);
+            builder.append(markdownString, copiedUntil, lineStart)
+                    .append(map.apply(markdownString.substring(lineStart, lineEnd)));
+            copiedUntil = lineEnd;
         }
-        return TextUtils.join("\n", lines);
+        return builder.append(markdownString, copiedUntil, markdownString.length()).toString();
     }
 
     public static boolean isCheckboxLine(String line) {
@@ -278,13 +231,35 @@ public class MarkdownUtil {
     }
 
     public static int getEndOfLine(@NonNull CharSequence s, int cursorPosition) {
-        int nextLinebreak = s.toString().indexOf('\n', cursorPosition);
+        int nextLinebreak = TextUtils.indexOf(s, '\n', cursorPosition);
         if (nextLinebreak > -1) {
             return nextLinebreak;
         }
         return s.length();
     }
 
+    /**
+     * Same as {@link #getStartOfLine(CharSequence, int)} but uses the given {@param index} in case it is up to date with {@param s}.
+     */
+    public static int getStartOfLine(@NonNull CharSequence s, int cursorPosition, @Nullable LineStartIndex index) {
+        return index != null && isUpToDate(s, cursorPosition, index)
+                ? index.getStartOfLine(cursorPosition)
+                : getStartOfLine(s, cursorPosition);
+    }
+
+    /**
+     * Same as {@link #getEndOfLine(CharSequence, int)} but uses the given {@param index} in case it is up to date with {@param s}.
+     */
+    public static int getEndOfLine(@NonNull CharSequence s, int cursorPosition, @Nullable LineStartIndex index) {
+        return index != null && isUpToDate(s, cursorPosition, index)
+                ? index.getEndOfLine(cursorPosition)
+                : getEndOfLine(s, cursorPosition);
+    }
+
+    private static boolean isUpToDate(@NonNull CharSequence s, int cursorPosition, @NonNull LineStartIndex index) {
+        return index.length() == s.length() && cursorPosition >= 0 && cursorPosition <= s.length();
+    }
+
     public static Optional<String> getListItemIfIsEmpty(@NonNull String line) {
         final String trimmedLine = line.trim();
         final int indention = line.indexOf(trimmedLine);
@@ -304,42 +279,40 @@ public class MarkdownUtil {
     }
 
     public static CharSequence setCheckboxStatus(@NonNull String markdownString, int targetCheckboxIndex, boolean newCheckedState) {
-        final String[] lines = markdownString.split("\n");
-        int checkboxIndex = 0;
-        boolean isInFencedCodeBlock = false;
-        int fencedCodeBlockSigns = 0;
-        for (int i = 0; i < lines.length; i++) {
-            final var matcher = PATTERN_CODE_FENCE.matcher(lines[i]);
-            if (matcher.find()) {
-                final String fence = matcher.group(1);
-                if (fence != null) {
-                    int currentFencedCodeBlockSigns = fence.length();
-                    if (isInFencedCodeBlock) {
-                        if (currentFencedCodeBlockSigns == fencedCodeBlockSigns) {
-                            isInFencedCodeBlock = false;
-                            fencedCodeBlockSigns = 0;
-                        }
-                    } else {
-                        isInFencedCodeBlock = true;
-                        fencedCodeBlockSigns = currentFencedCodeBlockSigns;
-                    }
-                }
-            }
-            if (!isInFencedCodeBlock) {
-                if (lineStartsWithCheckbox(lines[i]) && lines[i].trim().length() > EListType.DASH.checkboxChecked.length()) {
-                    if (checkboxIndex == targetCheckboxIndex) {
-                        final int indexOfStartingBracket = lines[i].indexOf("[");
-                        final String toggledLine = lines[i].substring(0, indexOfStartingBracket + 1) +
-                                (newCheckedState ? 'x' : ' ') +
-                                lines[i].substring(indexOfStartingBracket + 2);
-                        lines[i] = toggledLine;
-                        break;
-                    }
-                    checkboxIndex++;
-                }
-            }
+        return setCheckboxStatus(markdownString, MarkdownLineIndex.of(markdownString), targetCheckboxIndex, newCheckedState);
+    }
+
+    /**
+     * Same as {@link #setCheckboxStatus(String, int, boolean)} but reuses an existing {@param index} of the {@param markdownString}.
+     * Since toggling does not change any offset, the {@param index} stays valid for the returned markdown, except for {@link MarkdownLineIndex#isCheckboxChecked(int)}.
+     */
+    public static CharSequence setCheckboxStatus(@NonNull String markdownString, @NonNull MarkdownLineIndex index, int targetCheckboxIndex, boolean newCheckedState) {
+        if (targetCheckboxIndex < 0 || targetCheckboxIndex >= index.getCheckboxCount()) {
+            return markdownString;
         }
-        return TextUtils.join("\n", lines);
+        final var builder = new StringBuilder(markdownString);
+        builder.setCharAt(index.getCheckboxOffset(targetCheckboxIndex), newCheckedState ? 'x' : ' ');
+        return builder.toString();
+    }
+
+    /**
+     * Toggles the checkbox whose state character (e. g. <code>x</code> in <code>- [x]</code>) is located at {@param sourceOffset}
+     * without scanning the rest of the {@param markdown}.
+     *
+     * @return the changed markdown or {@link Optional#empty()} if there is no checkbox at the given {@param sourceOffset}, e. g. because the {@param markdown} changed in the meantime
+     */
+    @NonNull
+    public static Optional<String> setCheckboxStatusAtOffset(@NonNull CharSequence markdown, int sourceOffset, boolean newCheckedState) {
+        if (sourceOffset < 1 || sourceOffset + 1 >= markdown.length()) {
+            return Optional.empty();
+        }
+        final char state = markdown.charAt(sourceOffset);
+        if (markdown.charAt(sourceOffset - 1) != '[' || markdown.charAt(sourceOffset + 1) != ']' || (state != ' ' && state != 'x' && state != 'X')) {
+            return Optional.empty();
+        }
+        final var builder = new StringBuilder(markdown);
+        builder.setCharAt(sourceOffset, newCheckedState ? 'x' : ' ');
+        return Optional.of(builder.toString());
     }
 
     public static Optional<EListType> lineStartsWithList(@NonNull String line) {
@@ -406,64 +379,51 @@ public class MarkdownUtil {
      * @return the new cursor position
      */
     public static int togglePunctuation(@NonNull Editable editable, int selectionStart, int selectionEnd, @NonNull String punctuation) {
-        final String initialString = editable.toString();
-        if (selectionStart < 0 || selectionStart > initialString.length() || selectionEnd < 0 || selectionEnd > initialString.length()) {
+        final int length = editable.length();
+        if (selectionStart < 0 || selectionStart > length || selectionEnd < 0 || selectionEnd > length) {
             return 0;
         }
 
+        // Punctuation only applies within lines, so there is no need to look at the rest of the document
+        final int lineStart = getStartOfLine(editable, selectionStart);
+        final int nextLinebreak = TextUtils.indexOf(editable, '\n', selectionEnd);
+        final int lineEnd = nextLinebreak > -1 ? nextLinebreak : length;
+        final var matcher = InlinePunctuationMatcher.of(punctuation);
+
         // handle special case: italic (that damn thing will match like ANYTHING (regarding bold / bold+italic)....)
-        final boolean isItalic = punctuation.length() == 1 && punctuation.charAt(0) == '*';
-        if (isItalic) {
-            final var result = handleItalicEdgeCase(editable, initialString, selectionStart, selectionEnd);
-            // The result is only present if this actually was an edge case
-            if (result.isPresent()) {
-                return result.get();
+        // look if selection is bold, this is the only edge case afaik
+        if (matcher.isItalic()) {
+            // look the selection expansion by 1 is intended, so the NOT '*' has a chance to match. we don't want to match ***blah***
+            // look around (3 chars) (NOT '*' + "**"). User might have selected the text only
+            if (InlinePunctuationMatcher.containsBold(editable, Math.max(selectionStart - 1, lineStart), Math.min(selectionEnd + 1, lineEnd)) ||
+                    InlinePunctuationMatcher.containsBold(editable, Math.max(selectionStart - 3, lineStart), Math.min(selectionEnd + 3, lineEnd))) {
+                return insertPunctuation(editable, selectionStart, selectionEnd, "*");
             }
         }
 
         // handle the simple cases
-        final String wildcardRex = "([^" + punctuation.charAt(0) + "])+";
-        final String punctuationRex = Pattern.quote(punctuation);
-        final String pattern = isItalic
-                // in this case let's make optional asterisks around it, so it wont match anything between two (bold+italic)s
-                ? "\\*?\\*?" + punctuationRex + wildcardRex + punctuationRex + "\\*?\\*?"
-                : punctuationRex + wildcardRex + punctuationRex;
-        final var searchPattern = Pattern.compile(pattern);
-        int relevantStart = selectionStart - 2;
-        relevantStart = Math.max(relevantStart, 0);
-        int relevantEnd = selectionEnd + 2;
-        relevantEnd = Math.min(relevantEnd, initialString.length());
-        final Matcher matcher = searchPattern.matcher(initialString).region(relevantStart, relevantEnd);
+        final int[] matches = matcher.findAll(editable, Math.max(selectionStart - 2, lineStart), Math.min(selectionEnd + 2, lineEnd));
 
         // if the matcher matches, it's a remove
-        if (matcher.find()) {
-            // this resets the matcher, while keeping the required region
-            matcher.region(relevantStart, relevantEnd);
+        if (matches.length > 0) {
             final int punctuationLength = punctuation.length();
-            final var startEnd = new LinkedList<Pair<Integer, Integer>>();
-            int removedCount = 0;
-            while (matcher.find()) {
-                startEnd.add(new Pair<>(matcher.start(), matcher.end()));
-                removedCount += punctuationLength;
-            }
-            // start from the end
-            Collections.reverse(startEnd);
-            for (final var item : startEnd) {
-                deletePunctuation(editable, punctuationLength, item.first, item.second);
-            }
-            int offsetAtEnd = 0;
             // depending on if the user has selected the markdown chars, we might need to add an offset to the resulting cursor position
-            if (initialString.substring(Math.max(selectionEnd - punctuationLength + 1, 0), Math.min(selectionEnd + 1, initialString.length())).equals(punctuation) ||
-                    initialString.substring(selectionEnd, Math.min(selectionEnd + punctuationLength, initialString.length())).equals(punctuation)) {
-                offsetAtEnd = punctuationLength;
+            final int offsetAtEnd = contentEquals(editable, Math.max(selectionEnd - punctuationLength + 1, 0), Math.min(selectionEnd + 1, length), punctuation) ||
+                    contentEquals(editable, selectionEnd, Math.min(selectionEnd + punctuationLength, length), punctuation)
+                    ? punctuationLength
+                    : 0;
+            // start from the end
+            for (int i = matches.length - 2; i >= 0; i -= 2) {
+                deletePunctuation(editable, punctuationLength, matches[i], matches[i + 1]);
             }
+            final int removedCount = matches.length / 2 * punctuationLength;
             return selectionEnd - removedCount * 2 + offsetAtEnd;
             //                                 ^
             //         start+end, need to double
         }
 
         // do nothing when punctuation is contained only once
-        if (Pattern.compile(punctuationRex).matcher(initialString).region(selectionStart, selectionEnd).find()) {
+        if (matcher.indexOf(editable, selectionStart, selectionEnd) > -1) {
             return selectionEnd;
         }
 
@@ -471,32 +431,15 @@ public class MarkdownUtil {
         return insertPunctuation(editable, selectionStart, selectionEnd, punctuation);
     }
 
+    private static boolean contentEquals(@NonNull CharSequence s, int start, int end, @NonNull String expected) {
+        return end - start == expected.length() && TextUtils.regionMatches(s, start, expected, 0, expected.length());
+    }
+
     private static void deletePunctuation(Editable editable, int punctuationLength, int start, int end) {
         editable.delete(end - punctuationLength, end);
         editable.delete(start, start + punctuationLength);
     }
 
-    /**
-     * @return an {@link Optional<Integer>} of the new cursor position.
-     * The return value is only {@link Optional#isPresent()}, if this is an italic edge case.
-     */
-    @NonNull
-    private static Optional<Integer> handleItalicEdgeCase(Editable editable, String editableAsString, int selectionStart, int selectionEnd) {
-        // look if selection is bold, this is the only edge case afaik
-        final var searchPattern = Pattern.compile("(^|[^*])" + PATTERN_QUOTE_BOLD_PUNCTUATION + "([^*])*" + PATTERN_QUOTE_BOLD_PUNCTUATION + "([^*]|$)");
-        // look the selection expansion by 1 is intended, so the NOT '*' has a chance to match. we don't want to match ***blah***
-        final var matcher = searchPattern.matcher(editableAsString)
-                .region(Math.max(selectionStart - 1, 0), Math.min(selectionEnd + 1, editableAsString.length()));
-        if (matcher.find()) {
-            return Optional.of(insertPunctuation(editable, selectionStart, selectionEnd, "*"));
-        }
-        // look around (3 chars) (NOT '*' + "**"). User might have selected the text only
-        if (matcher.region(Math.max(selectionStart - 3, 0), Math.min(selectionEnd + 3, editableAsString.length())).find()) {
-            return Optional.of(insertPunctuation(editable, selectionStart, selectionEnd, "*"));
-        }
-        return Optional.empty();
-    }
-
     private static int insertPunctuation(Editable editable, int firstPosition, int secondPosition, String punctuation) {
         editable.insert(secondPosition, punctuation);
         editable.insert(firstPosition, punctuation);
@@ -602,22 +545,42 @@ public class MarkdownUtil {
     }
 
     public static void searchAndColor(@NonNull Context context, @NonNull Spannable editable, @Nullable CharSequence searchText, @ColorInt int color, @Nullable Integer current) {
-        final var util = ThemeUtils.Companion.of(color);
         if (searchText != null) {
-            final var m = Pattern
-                    .compile(searchText.toString(), Pattern.CASE_INSENSITIVE | Pattern.LITERAL)
-                    .matcher(editable);
-
-            int i = 1;
-            while (m.find()) {
-                int start = m.start();
-                int end = m.end();
-                final var span = current == null || i == current
-                        ? new SearchSpan(util.getPrimary(context), util.getOnPrimary(context))
-                        : new SearchSpan(util.getSecondary(context), util.getOnSecondary(context));
-                editable.setSpan(span, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                i++;
-            }
+            searchAndColor(context, editable, CompiledSearch.compile(searchText), color, current);
+        }
+    }
+
+    /**
+     * Highlights all matches of the {@param search} in the {@param editable} with {@link SearchSpan}s.
+     * Compile the {@param search} once and reuse it as long as the search terms do not change.
+     *
+     * @param current highlights the match at this position (starting with <code>1</code>) special. If <code>null</code>, all matches are highlighted special.
+     */
+    public static void searchAndColor(@NonNull Context context, @NonNull Spannable editable, @NonNull CompiledSearch search, @ColorInt int color, @Nullable Integer current) {
+        searchAndColor(context, editable, search, color, current, 0, editable.length(), 1);
+    }
+
+    /**
+     * Same as {@link #searchAndColor(Context, Spannable, CompiledSearch, int, Integer)} but only highlights the matches from {@param start} to {@param end}.
+     *
+     * @param firstMatchPosition the position of the first match in the given range among all matches of the {@param editable}, used to identify the {@param current} match
+     */
+    public static void searchAndColor(@NonNull Context context, @NonNull Spannable editable, @NonNull CompiledSearch search, @ColorInt int color, @Nullable Integer current, int start, int end, int firstMatchPosition) {
+        final int[] matches = search.findAll(editable, start, end);
+        if (matches.length == 0) {
+            return;
+        }
+        final var util = ThemeUtils.Companion.of(color);
+        @ColorInt final int primary = util.getPrimary(context);
+        @ColorInt final int onPrimary = util.getOnPrimary(context);
+        @ColorInt final int secondary = util.getSecondary(context);
+        @ColorInt final int onSecondary = util.getOnSecondary(context);
+        for (int i = 0; i < matches.length; i += 2) {
+            final int position = firstMatchPosition + i / 2;
+            final var span = current == null || position == current
+                    ? new SearchSpan(primary, onPrimary)
+                    : new SearchSpan(secondary, onSecondary);
+            editable.setSpan(span, matches[i], matches[i + 1], Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
     }
 
@@ -630,6 +593,17 @@ public class MarkdownUtil {
         }
     }
 
+    /**
+     * Replaces {@param span} in {@param spannable} with {@param replacement} at the same range and with the same flags.
+     */
+    public static void replaceSpan(@NonNull Spannable spannable, @NonNull Object span, @NonNull Object replacement) {
+        final int start = spannable.getSpanStart(span);
+        final int end = spannable.getSpanEnd(span);
+        final int flags = spannable.getSpanFlags(span);
+        spannable.removeSpan(span);
+        spannable.setSpan(replacement, start, end, flags);
+    }
+
     /**
      * @return When the content of the {@param textView} is already of type {@link Spannable}, it will cast and return it directly.
      * Otherwise it will create a new {@link SpannableString} from the content, set this as new content of the {@param textView} and return it.
@@ -662,10 +636,78 @@ public class MarkdownUtil {
      */
     @NonNull
     public static String removeMarkdown(@Nullable String s) {
-        if (TextUtils.isEmpty(s)) {
+        return removeMarkdown(s, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Strips all Markdown from {@param s} and stops as soon as {@param maxLength} characters of plain text have been extracted.
+     * Only a prefix of long sources gets parsed, so this is suitable for excerpts of long notes, unless the source
+     * contains link reference definitions after this prefix.
+     *
+     * @param s         Markdown string
+     * @param maxLength the maximum length of the returned plain text
+     * @return Plain text string
+     */
+    @NonNull
+    public static String removeMarkdown(@Nullable String s, int maxLength) {
+        if (TextUtils.isEmpty(s) || maxLength <= 0) {
             return "";
         }
-        final String html = RENDERER.render(PARSER.parse(replaceCheckboxesWithEmojis(s)));
-        return HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT).toString().trim();
+        final int sourceEnd = getExcerptSourceEnd(s, maxLength);
+        if (sourceEnd < s.length()) {
+            final var builder = new StringBuilder(maxLength);
+            // The prefix is only sufficient if it already contained enough plain text
+            if (appendPlainText(builder, s.substring(0, sourceEnd), maxLength)) {
+                return builder.toString().trim();
+            }
+        }
+        final var builder = new StringBuilder(Math.min(maxLength, s.length()));
+        appendPlainText(builder, s, maxLength);
+        return builder.toString().trim();
+    }
+
+    /**
+     * Strips all Markdown from each of the {@param contents} like {@link #removeMarkdown(String, int)}, distributed across all cores.
+     *
+     * @param contents  Markdown strings
+     * @param maxLength the maximum length of each returned plain text
+     * @return Plain text strings in the iteration order of {@param contents}
+     */
+    @NonNull
+    @WorkerThread
+    public static List<String> removeMarkdown(@NonNull Collection<String> contents, int maxLength) {
+        return new ArrayList<>(contents)
+                .parallelStream()
+                .map(content -> removeMarkdown(content, maxLength))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return whether {@param maxLength} characters have been appended, which means the plain text has been truncated
+     */
+    private static boolean appendPlainText(@NonNull StringBuilder builder, @NonNull String markdown, int maxLength) {
+        final var visitor = new PlainTextVisitor(builder, maxLength);
+        PARSER.parse(replaceCheckboxesWithEmojis(markdown)).accept(visitor);
+        return visitor.isLimitReached();
+    }
+
+    /**
+     * @return the end of the line in {@param s} after which at most {@param maxLength} characters of plain text are
+     * expected or the length of {@param s} if reference links in the prefix might be defined after it
+     */
+    private static int getExcerptSourceEnd(@NonNull String s, int maxLength) {
+        if (maxLength >= s.length() / EXCERPT_SOURCE_FACTOR) {
+            return s.length();
+        }
+        final int lineBreak = s.indexOf('\n', maxLength * EXCERPT_SOURCE_FACTOR);
+        if (lineBreak < 0 || PATTERN_LINK_REFERENCE_DEFINITION.matcher(s).region(lineBreak, s.length()).find()) {
+            return s.length();
+        }
+        return lineBreak;
+    }
+
+    private record SharedRemoteViewsRenderer(@NonNull Context context,
+                                             int nightMode,
+                                             @NonNull RemoteViewsRenderer renderer) {
     }
 }
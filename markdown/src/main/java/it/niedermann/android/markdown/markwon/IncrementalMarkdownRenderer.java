@@ -0,0 +1,237 @@
+package it.niedermann.android.markdown.markwon;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+import io.noties.markwon.Markwon;
+import io.noties.markwon.ext.tables.TableRowSpan;
+import it.niedermann.android.markdown.MarkdownLineIndex;
+import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.markwon.span.ToggleTaskListSpan;
+
+/**
+ * Renders markdown block by block and remembers the rendered blocks, so the next render only needs to render the
+ * top level blocks whose source has changed and can splice the others into the result.
+ * <p>
+ * The source is only split at blank lines which are followed by a new top level block that can not belong to the
+ * previous one. Documents with link reference definitions or HTML blocks, which can affect or span other blocks, are
+ * rendered as a whole.
+ * <p>
+ * Blocks containing tables are additionally kept for a while when they disappear, e.g. because the viewer displays
+ * an other note. Table rows measure their cells when they get drawn with a new width and keep the layouts, so
+ * reusing them spares measuring all cells again.
+ */
+final class IncrementalMarkdownRenderer {
+
+    private static final int FENCE_MIN_LENGTH = 3;
+    private static final int MAX_INDENTION = 3;
+    private static final int MAX_ORDERED_LIST_NUMBER_LENGTH = 9;
+    private static final int MAX_TABLE_BLOCKS = 8;
+
+    @NonNull
+    private List<RenderedBlock> renderedBlocks = Collections.emptyList();
+    @Nullable
+    private RenderedMarkdownCache.Key previousKey;
+    /**
+     * Rendered blocks containing tables by their source and settings
+     */
+    @NonNull
+    private final LruCache<RenderedMarkdownCache.Key, RenderedBlock> tableBlocks = new LruCache<>(MAX_TABLE_BLOCKS);
+
+    /**
+     * @param key      the markdown and the settings it gets rendered with. Blocks rendered with other settings are not reused.
+     * @param renderer parses and renders markdown with {@link Markwon}
+     * @return the rendered markdown like {@param renderer} would return it for the whole document
+     */
+    @NonNull
+    synchronized Spanned render(@NonNull RenderedMarkdownCache.Key key, @NonNull Function<String, Spanned> renderer) {
+        if (!key.hasSameSettings(previousKey)) {
+            renderedBlocks = Collections.emptyList();
+        }
+        previousKey = key;
+
+        final var markdown = key.markdown();
+        final var blocks = split(markdown);
+        if (blocks == null) {
+            renderedBlocks = Collections.emptyList();
+            return renderer.apply(markdown);
+        }
+
+        final var previousBlocks = new HashMap<String, ArrayDeque<RenderedBlock>>();
+        for (final var renderedBlock : renderedBlocks) {
+            previousBlocks.computeIfAbsent(renderedBlock.source(), source -> new ArrayDeque<>()).add(renderedBlock);
+        }
+
+        final var builder = new SpannableStringBuilder();
+        final var renderedBlocks = new ArrayList<RenderedBlock>(blocks.size());
+        // The spans of a rendered block can only be part of the result once
+        final var usedBlocks = Collections.newSetFromMap(new IdentityHashMap<RenderedBlock, Boolean>());
+        int precedingCheckboxes = 0;
+        for (final var block : blocks) {
+            final var previous = previousBlocks.get(block.source());
+            var renderedBlock = previous == null ? null : previous.poll();
+            if (renderedBlock == null) {
+                final var tableKey = key.withMarkdown(block.source());
+                renderedBlock = tableBlocks.get(tableKey);
+                if (renderedBlock == null || usedBlocks.contains(renderedBlock)) {
+                    renderedBlock = new RenderedBlock(block.source(), renderer.apply(block.source()), MarkdownLineIndex.of(block.source()).getCheckboxCount());
+                    if (containsTable(renderedBlock.rendered())) {
+                        tableBlocks.put(tableKey, renderedBlock);
+                    }
+                }
+            }
+            usedBlocks.add(renderedBlock);
+
+            // Markwon separates top level blocks by an empty line
+            if (builder.length() > 0 && renderedBlock.rendered().length() > 0) {
+                if (builder.charAt(builder.length() - 1) != '\n') {
+                    builder.append('\n');
+                }
+                builder.append('\n');
+            }
+            final int start = builder.length();
+            builder.append(renderedBlock.rendered());
+            if (precedingCheckboxes > 0 || block.start() > 0) {
+                for (final var span : builder.getSpans(start, builder.length(), ToggleTaskListSpan.class)) {
+                    MarkdownUtil.replaceSpan(builder, span, span.shift(precedingCheckboxes, block.start()));
+                }
+            }
+            precedingCheckboxes += renderedBlock.checkboxCount();
+            renderedBlocks.add(renderedBlock);
+        }
+        this.renderedBlocks = renderedBlocks;
+        return builder;
+    }
+
+    private static boolean containsTable(@NonNull Spanned rendered) {
+        return rendered.getSpans(0, rendered.length(), TableRowSpan.class).length > 0;
+    }
+
+    /**
+     * @return the top level blocks of {@param markdown} or <code>null</code> if it can not be split safely
+     */
+    @VisibleForTesting
+    @Nullable
+    static List<Block> split(@NonNull String markdown) {
+        final var index = MarkdownLineIndex.of(markdown);
+        final var blocks = new ArrayList<Block>();
+        int blockStart = 0;
+        char fenceChar = 0;
+        int fenceLength = 0;
+        boolean previousLineBlank = false;
+
+        for (int line = 0; line < index.getLineCount(); line++) {
+            final int lineStart = index.getLineStart(line);
+            final int lineEnd = index.getLineEnd(line);
+
+            if (fenceLength == 0) {
+                if (isLinkReferenceDefinitionOrHtml(markdown, lineStart, lineEnd)) {
+                    return null;
+                }
+                if (previousLineBlank
+                        && lineStart > blockStart
+                        && !index.isInFencedCodeBlock(line - 1)
+                        && startsTopLevelBlock(markdown, lineStart, lineEnd)) {
+                    blocks.add(new Block(blockStart, markdown.substring(blockStart, lineStart)));
+                    blockStart = lineStart;
+                }
+            }
+
+            final int fenceStart = skipIndention(markdown, lineStart, lineEnd);
+            final int fenceRun = fenceStart < lineEnd ? getRunLength(markdown, fenceStart, lineEnd) : 0;
+            if (fenceLength == 0) {
+                if (fenceRun >= FENCE_MIN_LENGTH && (markdown.charAt(fenceStart) == '`' || markdown.charAt(fenceStart) == '~')) {
+                    fenceChar = markdown.charAt(fenceStart);
+                    fenceLength = fenceRun;
+                }
+            } else if (fenceRun >= fenceLength
+                    && markdown.charAt(fenceStart) == fenceChar
+                    && isBlank(markdown, fenceStart + fenceRun, lineEnd)) {
+                fenceLength = 0;
+            }
+
+            previousLineBlank = isBlank(markdown, lineStart, lineEnd);
+        }
+
+        blocks.add(new Block(blockStart, markdown.substring(blockStart)));
+        return blocks;
+    }
+
+    /**
+     * @return whether the line starts a new top level block, which is not indented, no list item and no lazy continuation
+     */
+    private static boolean startsTopLevelBlock(@NonNull String markdown, int lineStart, int lineEnd) {
+        if (lineStart == lineEnd || Character.isWhitespace(markdown.charAt(lineStart))) {
+            return false;
+        }
+        final char first = markdown.charAt(lineStart);
+        if (first == '-' || first == '*' || first == '+') {
+            return lineStart + 1 < lineEnd && !Character.isWhitespace(markdown.charAt(lineStart + 1));
+        }
+        int position = lineStart;
+        while (position < lineEnd && position - lineStart < MAX_ORDERED_LIST_NUMBER_LENGTH && Character.isDigit(markdown.charAt(position))) {
+            position++;
+        }
+        return position == lineStart
+                || position == lineEnd
+                || (markdown.charAt(position) != '.' && markdown.charAt(position) != ')');
+    }
+
+    private static boolean isLinkReferenceDefinitionOrHtml(@NonNull String markdown, int lineStart, int lineEnd) {
+        final int start = skipIndention(markdown, lineStart, lineEnd);
+        if (start == lineEnd) {
+            return false;
+        }
+        final char first = markdown.charAt(start);
+        return first == '<' || (first == '[' && markdown.substring(start, lineEnd).contains("]:"));
+    }
+
+    private static int skipIndention(@NonNull String markdown, int lineStart, int lineEnd) {
+        int position = lineStart;
+        while (position < lineEnd && position - lineStart < MAX_INDENTION && markdown.charAt(position) == ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    private static int getRunLength(@NonNull String markdown, int start, int end) {
+        final char c = markdown.charAt(start);
+        int position = start;
+        while (position < end && markdown.charAt(position) == c) {
+            position++;
+        }
+        return position - start;
+    }
+
+    private static boolean isBlank(@NonNull String markdown, int start, int end) {
+        for (int position = start; position < end; position++) {
+            if (!Character.isWhitespace(markdown.charAt(position))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param start offset of the first character of this block in the whole markdown source
+     */
+    @VisibleForTesting
+    record Block(int start, @NonNull String source) {
+    }
+
+    private record RenderedBlock(@NonNull String source, @NonNull Spanned rendered, int checkboxCount) {
+    }
+}
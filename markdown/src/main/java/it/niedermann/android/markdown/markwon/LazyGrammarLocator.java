@@ -0,0 +1,256 @@
+package it.niedermann.android.markdown.markwon;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import io.noties.prism4j.GrammarLocator;
+import io.noties.prism4j.Prism4j;
+import io.noties.prism4j.annotations.PrismBundle;
+
+/**
+ * Compiles the grammar of a language the first time a code block of this language gets highlighted and keeps only the
+ * most recently used grammars. Languages which are used often can be {@link #preload(Collection) preloaded}, those
+ * are compiled in the background and never evicted.
+ * <p>
+ * Some grammars modify other grammars when they get compiled, e. g. <code>css</code> adds a <code>style</code> token to
+ * <code>markup</code>. A grammar and its modifiers are therefore only evicted together, otherwise compiling an evicted
+ * modifier again would apply its modifications a second time to the cached grammar, which might be in use.
+ * <p>
+ * The grammars are provided by the generated {@link MarkwonGrammarLocator}, but its unbounded cache is not used.
+ */
+@PrismBundle(includeAll = true, grammarLocatorClassName = ".MarkwonGrammarLocator")
+public class LazyGrammarLocator implements GrammarLocator {
+
+    private static final String TAG = LazyGrammarLocator.class.getSimpleName();
+    private static final int DEFAULT_MAX_SIZE = 8;
+    @NonNull
+    private static final LazyGrammarLocator INSTANCE = new LazyGrammarLocator(DEFAULT_MAX_SIZE);
+
+    @NonNull
+    private final MarkwonGrammarLocator grammars = new MarkwonGrammarLocator();
+    @NonNull
+    private final Prism4j prism4j = new Prism4j(this);
+    /**
+     * Grammars of {@link #preloaded} languages, which are never evicted
+     */
+    @NonNull
+    private final Map<String, Optional<Prism4j.Grammar>> pinned = new HashMap<>();
+    /**
+     * Other grammars in access order. Languages without grammar are cached as well, since any text can be used as language of a code block.
+     */
+    @NonNull
+    private final Map<String, Optional<Prism4j.Grammar>> recent;
+    @NonNull
+    private final Set<String> preloaded = new HashSet<>();
+    /**
+     * Languages whose grammars modify the grammar of the key language
+     */
+    @NonNull
+    private final Map<String, Set<String>> modifiers = new HashMap<>();
+    /**
+     * Languages whose grammars are currently compiled, the innermost one last
+     */
+    @NonNull
+    private final Deque<String> compiling = new ArrayDeque<>();
+    private final int maxSize;
+    @NonNull
+    private final ExecutorService preloadService = new ThreadPoolExecutor(0, 1, 10, SECONDS, new LinkedBlockingQueue<>());
+    /**
+     * Whether the current {@link #grammar(Prism4j, String)} call has been made by a grammar modifying an other one
+     */
+    private boolean modifying = false;
+
+    @VisibleForTesting
+    LazyGrammarLocator(int maxSize) {
+        this.maxSize = maxSize;
+        this.recent = new LinkedHashMap<>(maxSize + 1, 1f, true);
+    }
+
+    @NonNull
+    public static LazyGrammarLocator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a {@link Prism4j} which loads its grammars from this locator
+     */
+    @NonNull
+    public Prism4j getPrism4j() {
+        return prism4j;
+    }
+
+    /**
+     * Compiles the grammars of the given {@param languages} in the background and keeps them as long as the process lives.
+     *
+     * @param languages names or aliases like <code>java</code> or <code>js</code>
+     */
+    public void preload(@NonNull Collection<String> languages) {
+        synchronized (this) {
+            for (final var language : languages) {
+                final var name = grammars.realLanguageName(language);
+                preloaded.add(name);
+                pin(name);
+            }
+        }
+        preloadService.execute(() -> {
+            for (final var language : languages) {
+                try {
+                    grammar(prism4j, language);
+                } catch (Throwable t) {
+                    Log.w(TAG, "Could not preload grammar for " + language, t);
+                }
+            }
+        });
+    }
+
+    @Nullable
+    @Override
+    public synchronized Prism4j.Grammar grammar(@NonNull Prism4j prism4j, @NonNull String language) {
+        final var name = grammars.realLanguageName(language);
+        // A grammar which is asked for while an other one gets modified is one of its modifiers. Modifications are applied
+        // when the modifier gets compiled, so it needs to be compiled again in case the modified grammar has been evicted before.
+        final boolean recompile = modifying;
+        modifying = false;
+        try {
+            if (recompile) {
+                modifiers.computeIfAbsent(compiling.getLast(), key -> new HashSet<>()).add(name);
+            }
+            final var cached = pinned.containsKey(name) ? pinned.get(name) : recent.get(name);
+            // A modifier which is currently compiled applies its modifications as soon as it is done
+            if ((!recompile && cached != null) || compiling.contains(name)) {
+                //noinspection OptionalAssignedToNull
+                return cached == null ? null : cached.orElse(null);
+            }
+
+            compiling.addLast(name);
+            final Prism4j.Grammar grammar;
+            try {
+                grammar = grammars.obtainGrammar(prism4j, name);
+                if (preloaded.contains(name) || modifiesPinned(name)) {
+                    recent.remove(name);
+                    pinned.put(name, Optional.ofNullable(grammar));
+                } else {
+                    pinned.remove(name);
+                    recent.put(name, Optional.ofNullable(grammar));
+                }
+                if (grammar != null) {
+                    modifying = true;
+                    try {
+                        grammars.triggerModify(prism4j, name);
+                    } finally {
+                        modifying = false;
+                    }
+                }
+            } finally {
+                compiling.removeLast();
+            }
+            if (compiling.isEmpty()) {
+                trim(name);
+            }
+            return grammar;
+        } finally {
+            modifying = recompile;
+        }
+    }
+
+    /**
+     * Moves the grammar of the {@param language} and of its modifiers to the {@link #pinned} grammars
+     */
+    private void pin(@NonNull String language) {
+        if (recent.containsKey(language)) {
+            pinned.put(language, recent.remove(language));
+        }
+        for (final var modifier : modifiers.getOrDefault(language, Set.of())) {
+            pin(modifier);
+        }
+    }
+
+    private boolean modifiesPinned(@NonNull String language) {
+        for (final var entry : modifiers.entrySet()) {
+            if (entry.getValue().contains(language) && pinned.containsKey(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the least recently used grammars together with the grammars they modify or are modified by, except the
+     * ones belonging to the {@param requested} language.
+     */
+    private void trim(@NonNull String requested) {
+        if (recent.size() <= maxSize) {
+            return;
+        }
+        final var keep = getUnit(requested);
+        for (final var name : new ArrayList<>(recent.keySet())) {
+            if (recent.size() <= maxSize) {
+                return;
+            }
+            if (!keep.contains(name)) {
+                for (final var member : getUnit(name)) {
+                    recent.remove(member);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the {@param language} and all {@link #recent} languages which modify it or are modified by it, directly or indirectly
+     */
+    @NonNull
+    private Set<String> getUnit(@NonNull String language) {
+        final var unit = new HashSet<String>();
+        final var queue = new ArrayDeque<String>();
+        queue.add(language);
+        while (!queue.isEmpty()) {
+            final var name = queue.poll();
+            if (!unit.add(name)) {
+                continue;
+            }
+            for (final var entry : modifiers.entrySet()) {
+                if (entry.getKey().equals(name)) {
+                    for (final var modifier : entry.getValue()) {
+                        if (recent.containsKey(modifier)) {
+                            queue.add(modifier);
+                        }
+                    }
+                } else if (entry.getValue().contains(name) && recent.containsKey(entry.getKey())) {
+                    queue.add(entry.getKey());
+                }
+            }
+        }
+        return unit;
+    }
+
+    @NonNull
+    @Override
+    public Set<String> languages() {
+        return grammars.languages();
+    }
+
+    @VisibleForTesting
+    synchronized boolean isLoaded(@NonNull String language) {
+        final var name = grammars.realLanguageName(language);
+        return pinned.containsKey(name) || recent.containsKey(name);
+    }
+}
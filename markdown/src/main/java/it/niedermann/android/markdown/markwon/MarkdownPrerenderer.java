@@ -0,0 +1,169 @@
+package it.niedermann.android.markdown.markwon;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.TypedValue;
+import android.view.ContextThemeWrapper;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.nextcloud.android.common.ui.util.PlatformThemeUtil;
+import com.nextcloud.android.sso.model.SingleSignOnAccount;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import it.niedermann.android.markdown.R;
+
+/**
+ * Renders markdown of upcoming list items in the background, e.g. from a {@code RecyclerView} prefetch callback,
+ * so {@link MarkwonMarkdownViewer#setMarkdownString(CharSequence)} finds them in the {@link RenderedMarkdownCache}.
+ * <p>
+ * Renders with the {@link SharedMarkwon} of the viewers, so the settings of this prerenderer need to match the ones of
+ * the viewers which should pick the results up.
+ */
+public class MarkdownPrerenderer {
+
+    private static final String TAG = MarkdownPrerenderer.class.getSimpleName();
+    private static final int DEFAULT_POOL_SIZE = 1;
+    private static final int MAX_PENDING = 64;
+    private static final int MAX_UNCACHEABLE = 128;
+
+    @NonNull
+    private final RenderedMarkdownCache renderedMarkdownCache = RenderedMarkdownCache.getInstance();
+    @NonNull
+    private final ExecutorService executor;
+    /**
+     * Application context with the theme of the viewers, which does not keep an {@link android.app.Activity} alive
+     */
+    @NonNull
+    private final Context context;
+    /**
+     * Keys of results which have been refused by the {@link RenderedMarkdownCache}, e. g. because they contain tables.
+     * Rendering them again would be of no use for the viewers.
+     */
+    @NonNull
+    private final LruCache<RenderedMarkdownCache.Key, Boolean> uncacheable = new LruCache<>(MAX_UNCACHEABLE);
+    private final boolean darkMode;
+    private final boolean mentionsEnabled;
+    @NonNull
+    private volatile Settings settings;
+
+    /**
+     * Uses the same defaults as a {@link MarkwonMarkdownViewer} inflated with the given {@param context}.
+     * Pass the same themed {@link Context} the viewers use, since the rendered colors depend on its theme.
+     */
+    public MarkdownPrerenderer(@NonNull Context context) {
+        this(context, context.getResources().getBoolean(R.bool.mentionsEnabled), getPrimaryColor(context), DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize renders of viewers with the same settings are serialized by their {@link SharedMarkwon}, so more
+     *                 than one thread only helps if the settings change
+     */
+    public MarkdownPrerenderer(@NonNull Context context, boolean enableMentions, @ColorInt int color, int poolSize) {
+        this.context = new ContextThemeWrapper(context.getApplicationContext(), context.getTheme());
+        this.darkMode = PlatformThemeUtil.isDarkMode(context);
+        this.mentionsEnabled = enableMentions;
+        this.settings = new Settings(color, null, null);
+        // The oldest requests get dropped when the user scrolls faster than we can render
+        final var executor = new ThreadPoolExecutor(poolSize, poolSize, 10, SECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        // Do not keep idle threads around while nothing gets scrolled
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    private static int getPrimaryColor(@NonNull Context context) {
+        final var typedValue = new TypedValue();
+        context.getTheme().resolveAttribute(androidx.appcompat.R.attr.colorPrimary, typedValue, true);
+        return typedValue.data;
+    }
+
+    /**
+     * @see MarkwonMarkdownViewer#setCurrentSingleSignOnAccount(SingleSignOnAccount, int)
+     */
+    public void setCurrentSingleSignOnAccount(@Nullable SingleSignOnAccount ssoAccount, @ColorInt int color) {
+        settings = new Settings(color, ssoAccount, settings.imagePrefix());
+    }
+
+    /**
+     * @see MarkwonMarkdownViewer#setMarkdownImageUrlPrefix(String)
+     */
+    public void setMarkdownImageUrlPrefix(@NonNull String prefix) {
+        settings = new Settings(settings.color(), settings.ssoAccount(), prefix);
+    }
+
+    public void prerender(@NonNull Collection<? extends CharSequence> markdowns) {
+        for (final var markdown : markdowns) {
+            prerender(markdown);
+        }
+    }
+
+    /**
+     * Renders the {@param markdown} in the background unless it is empty or has already been rendered with the current settings.
+     */
+    public void prerender(@Nullable CharSequence markdown) {
+        if (TextUtils.isEmpty(markdown)) {
+            return;
+        }
+        final var settings = this.settings;
+        final var cacheKey = new RenderedMarkdownCache.Key(markdown.toString(), settings.color(), darkMode, mentionsEnabled,
+                settings.ssoAccount() == null ? null : settings.ssoAccount().name, settings.imagePrefix());
+        if (isDone(cacheKey)) {
+            return;
+        }
+        executor.execute(() -> {
+            if (!isDone(cacheKey)) {
+                try {
+                    final var rendered = SharedMarkwon.get(context, mentionsEnabled, settings.color())
+                            .render(cacheKey.markdown(), settings.ssoAccount(), settings.imagePrefix());
+                    if (!renderedMarkdownCache.put(cacheKey, rendered)) {
+                        uncacheable.put(cacheKey, Boolean.TRUE);
+                    }
+                } catch (Throwable t) {
+                    Log.w(TAG, "Could not prerender markdown", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether the result for the {@param cacheKey} is either cached or known to be refused by the cache
+     */
+    private boolean isDone(@NonNull RenderedMarkdownCache.Key cacheKey) {
+        return renderedMarkdownCache.contains(cacheKey) || uncacheable.get(cacheKey) != null;
+    }
+
+    /**
+     * Waits until all renders which have been requested so far are done, as long as they are rendered by a single thread.
+     */
+    @VisibleForTesting
+    void awaitIdle() throws ExecutionException, InterruptedException {
+        executor.submit(() -> {
+        }).get();
+    }
+
+    /**
+     * Discards all pending renders and stops the background threads. This prerenderer can not be used anymore afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Settings(@ColorInt int color,
+                            @Nullable SingleSignOnAccount ssoAccount,
+                            @Nullable String imagePrefix) {
+    }
+}
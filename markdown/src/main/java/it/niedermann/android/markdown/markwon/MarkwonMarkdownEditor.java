@@ -6,11 +6,13 @@ import android.text.SpannableStringBuilder;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.widget.AppCompatEditText;
 import androidx.lifecycle.LiveData;
@@ -22,12 +24,14 @@ import com.nextcloud.android.sso.helper.SingleAccountHelper;
 import com.nextcloud.android.sso.model.SingleSignOnAccount;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import io.noties.markwon.Markwon;
 import io.noties.markwon.editor.MarkwonEditor;
@@ -37,6 +41,8 @@ import io.noties.markwon.ext.strikethrough.StrikethroughPlugin;
 import io.noties.markwon.image.ImagesPlugin;
 import io.noties.markwon.inlineparser.MarkwonInlineParserPlugin;
 import io.noties.markwon.simple.ext.SimpleExtPlugin;
+import it.niedermann.android.markdown.LineStartIndex;
+import it.niedermann.android.markdown.MarkdownEdit;
 import it.niedermann.android.markdown.MarkdownEditor;
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.controller.Command;
@@ -52,8 +58,10 @@ import it.niedermann.android.markdown.markwon.handler.HeadingEditHandler;
 import it.niedermann.android.markdown.markwon.handler.StrikethroughEditHandler;
 import it.niedermann.android.markdown.markwon.plugins.SearchHighlightPlugin;
 import it.niedermann.android.markdown.markwon.plugins.ThemePlugin;
-import it.niedermann.android.markdown.markwon.textwatcher.CombinedTextWatcher;
-import it.niedermann.android.markdown.markwon.textwatcher.SearchHighlightTextWatcher;
+import it.niedermann.android.markdown.markwon.textwatcher.EditContext;
+import it.niedermann.android.markdown.markwon.textwatcher.EditHistory;
+import it.niedermann.android.markdown.markwon.textwatcher.IncrementalEditorTextWatcher;
+import it.niedermann.android.markdown.markwon.textwatcher.TextWatcherPipeline;
 
 public class MarkwonMarkdownEditor extends AppCompatEditText implements MarkdownEditor, CommandReceiver {
 
@@ -62,10 +70,15 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
     @Nullable
     private Consumer<CharSequence> listener;
     @Nullable
+    private Consumer<MarkdownEdit> editListener;
+    private long version = 0;
+    @Nullable
     private final Set<MarkdownController> controllers = ConcurrentHashMap.newKeySet(2);
     private final EditorStateNotifier editorStateNotifier;
-    private final MutableLiveData<CharSequence> unrenderedText$ = new MutableLiveData<>();
-    private final CombinedTextWatcher combinedWatcher;
+    private final LazyMarkdownLiveData unrenderedText$ = new LazyMarkdownLiveData();
+    private final TextWatcherPipeline textWatcherPipeline;
+    private final LineStartIndex lineStartIndex;
+    private final ViewTreeObserver.OnScrollChangedListener scrollChangedListener;
     @ColorInt
     private int color;
 
@@ -97,8 +110,13 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         final var markwon = createMarkwonBuilder(context, color).build();
         final var editor = createMarkwonEditorBuilder(markwon).build();
 
-        combinedWatcher = new CombinedTextWatcher(editor, this);
-        addTextChangedListener(combinedWatcher);
+        // Must be notified before all other watchers so they can rely on it
+        final var initialText = getText();
+        lineStartIndex = new LineStartIndex(initialText == null ? "" : initialText);
+        addTextChangedListener(lineStartIndex);
+        textWatcherPipeline = new TextWatcherPipeline(editor, this);
+        addTextChangedListener(textWatcherPipeline);
+        scrollChangedListener = textWatcherPipeline::onViewportChanged;
 
         final var actionModeCallback = new ContextBasedFormattingCallback();
         setCustomSelectionActionModeCallback(actionModeCallback);
@@ -127,6 +145,14 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
                 .useEditHandler(new HeadingEditHandler());
     }
 
+    /**
+     * @return an index of the line starts of the current text, which is updated on each change
+     */
+    @NonNull
+    public LineStartIndex getLineStartIndex() {
+        return lineStartIndex;
+    }
+
     /**
      * @param color which will be used for highlighting. See {@link #setSearchText(CharSequence)}
      * @deprecated Use {@link MarkdownEditor#setCurrentSingleSignOnAccount(SingleSignOnAccount, int)}
@@ -146,13 +172,13 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
     public void setCurrentSingleSignOnAccount(@Nullable SingleSignOnAccount account, @ColorInt int color) {
         this.color = color;
         notifyControllers();
-        final var searchHighlightTextWatcher = combinedWatcher.get(SearchHighlightTextWatcher.class);
+        final var searchHighlightTextWatcher = textWatcherPipeline.getSearchHighlightStage();
         searchHighlightTextWatcher.setSearchColor(color);
     }
 
     @Override
     public void setSearchText(@Nullable CharSequence searchText, @Nullable Integer current) {
-        final var searchHighlightTextWatcher = combinedWatcher.get(SearchHighlightTextWatcher.class);
+        final var searchHighlightTextWatcher = textWatcherPipeline.getSearchHighlightStage();
         searchHighlightTextWatcher.setSearchText(searchText, current);
     }
 
@@ -160,6 +186,7 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
     public void setMarkdownString(CharSequence text) {
         setText(text);
         setMarkdownStringModel(text);
+        textWatcherPipeline.getHistory().clear();
         notifyControllers();
     }
 
@@ -176,12 +203,39 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
      */
     @Deprecated
     public void setMarkdownStringModel(CharSequence text) {
-        unrenderedText$.setValue(text == null ? "" : text.toString());
+        unrenderedText$.setMarkdown(text == null ? "" : text);
         if (listener != null) {
             listener.accept(unrenderedText$.getValue());
         }
     }
 
+    /**
+     * Notifies the {@link #setMarkdownEditListener(Consumer) edit listener} about the {@param edits} which make up one
+     * change of the text. The text already contains all of them, so only the last one provides the whole markdown, as
+     * long as the text does not change again.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void notifyMarkdownEdits(@NonNull List<EditContext> edits) {
+        final long firstVersion = this.version + 1;
+        this.version += edits.size();
+        if (editListener == null) {
+            return;
+        }
+        final long lastVersion = this.version;
+        final Supplier<String> markdownSupplier = () -> {
+            if (lastVersion < this.version) {
+                throw new IllegalStateException("Markdown of version " + lastVersion + " is not available anymore, current version is " + this.version);
+            }
+            final var text = getText();
+            return text == null ? "" : text.toString();
+        };
+        for (int i = 0; i < edits.size(); i++) {
+            final var edit = edits.get(i);
+            final long version = firstVersion + i;
+            editListener.accept(new MarkdownEdit(version, edit.start(), edit.before(), edit.inserted(), version == lastVersion ? markdownSupplier : null));
+        }
+    }
+
     /**
      * @deprecated use {@link #setMarkdownStringChangedListener(Consumer)}
      */
@@ -196,6 +250,63 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         this.listener = listener;
     }
 
+    @Override
+    public void setMarkdownEditListener(@Nullable Consumer<MarkdownEdit> listener) {
+        this.editListener = listener;
+    }
+
+    public boolean canUndo() {
+        return textWatcherPipeline.getHistory().canUndo();
+    }
+
+    public boolean canRedo() {
+        return textWatcherPipeline.getHistory().canRedo();
+    }
+
+    /**
+     * Reverts the latest transaction of changes. Consecutive typing is grouped into one transaction.
+     *
+     * @return whether there was something to undo
+     */
+    public boolean undo() {
+        return setSelectionIfValid(textWatcherPipeline.undo());
+    }
+
+    /**
+     * Applies the latest reverted transaction of changes again.
+     *
+     * @return whether there was something to redo
+     */
+    public boolean redo() {
+        return setSelectionIfValid(textWatcherPipeline.redo());
+    }
+
+    private boolean setSelectionIfValid(int selection) {
+        if (selection < 0) {
+            return false;
+        }
+        setSelection(Math.min(selection, length()));
+        return true;
+    }
+
+    /**
+     * Texts longer than the given {@param threshold} are only styled around the visible part of the editor, which keeps
+     * editing very large documents responsive. Defaults to {@link IncrementalEditorTextWatcher#DEFAULT_LARGE_DOCUMENT_THRESHOLD}.
+     *
+     * @param threshold number of characters
+     */
+    public void setLargeDocumentThreshold(int threshold) {
+        textWatcherPipeline.getIncrementalEditorStage().setLargeDocumentThreshold(threshold);
+    }
+
+    /**
+     * @param maxSize maximum number of characters kept in the undo and redo history, older changes get dropped.
+     *                Defaults to {@link EditHistory#DEFAULT_MAX_SIZE}.
+     */
+    public void setHistoryMaxSize(int maxSize) {
+        textWatcherPipeline.getHistory().setMaxSize(maxSize);
+    }
+
     /**
      * ⚠ This is a <strong>BETA</strong> feature. Please be careful. API changes can happen anytime and won't be announced!
      */
@@ -241,14 +352,29 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         controllers.remove(controller);
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(scrollChangedListener);
+    }
+
     @Override
     protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollChangedListener);
         if (controllers != null) {
             controllers.forEach(this::unregisterController);
         }
         super.onDetachedFromWindow();
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (textWatcherPipeline != null) {
+            textWatcherPipeline.onViewportChanged();
+        }
+    }
+
     @Override
     protected void onSelectionChanged(int selStart, int selEnd) {
         super.onSelectionChanged(selStart, selEnd);
@@ -296,7 +422,72 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
             throw new UnsupportedOperationException();
         }
 
-        setMarkdownString(result.get().content());
+        replaceChangedRange(result.get().content());
         setSelection(result.get().selection());
     }
+
+    /**
+     * Replaces only the range of the current text which differs from the given {@param content}, so the change can be
+     * undone and the spans of the unchanged text are kept.
+     */
+    private void replaceChangedRange(@NonNull CharSequence content) {
+        final var text = getText();
+        if (text == null) {
+            setMarkdownString(content);
+            return;
+        }
+        final int oldLength = text.length();
+        final int newLength = content.length();
+        int prefix = 0;
+        while (prefix < oldLength && prefix < newLength && text.charAt(prefix) == content.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldLength - prefix && suffix < newLength - prefix && text.charAt(oldLength - 1 - suffix) == content.charAt(newLength - 1 - suffix)) {
+            suffix++;
+        }
+        if (prefix == oldLength && prefix == newLength) {
+            return;
+        }
+        text.replace(prefix, oldLength - suffix, content.subSequence(prefix, newLength - suffix).toString());
+        notifyControllers();
+    }
+
+    /**
+     * Holds the current markdown, but only converts it to a {@link String} when it gets observed or requested.
+     */
+    private static class LazyMarkdownLiveData extends MutableLiveData<CharSequence> {
+
+        @Nullable
+        private CharSequence pending;
+
+        void setMarkdown(@NonNull CharSequence markdown) {
+            if (hasActiveObservers()) {
+                pending = null;
+                setValue(markdown.toString());
+            } else {
+                pending = markdown;
+            }
+        }
+
+        @Nullable
+        @Override
+        public CharSequence getValue() {
+            flush();
+            return super.getValue();
+        }
+
+        @Override
+        protected void onActive() {
+            flush();
+        }
+
+        private void flush() {
+            if (pending != null) {
+                final var markdown = pending;
+                pending = null;
+                setValue(markdown.toString());
+            }
+        }
+    }
 }
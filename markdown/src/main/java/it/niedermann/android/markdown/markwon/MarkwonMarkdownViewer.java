@@ -1,20 +1,28 @@
 package it.niedermann.android.markdown.markwon;
 
 import static androidx.lifecycle.Transformations.distinctUntilChanged;
-import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Build;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.text.TextUtils;
+import android.text.style.URLSpan;
 import android.util.AttributeSet;
 import android.util.TypedValue;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
@@ -24,20 +32,29 @@ import com.nextcloud.android.sso.exceptions.NoCurrentAccountSelectedException;
 import com.nextcloud.android.sso.helper.SingleAccountHelper;
 import com.nextcloud.android.sso.model.SingleSignOnAccount;
 
+import org.commonmark.node.Image;
+
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import io.noties.markwon.Markwon;
-import io.noties.markwon.MarkwonPlugin;
+import io.noties.markwon.MarkwonConfiguration;
+import io.noties.markwon.RenderPropsImpl;
 import io.noties.markwon.SoftBreakAddsNewLinePlugin;
 import io.noties.markwon.ext.strikethrough.StrikethroughPlugin;
 import io.noties.markwon.ext.tables.TableAwareMovementMethod;
 import io.noties.markwon.ext.tables.TablePlugin;
+import io.noties.markwon.ext.tables.TableRowSpan;
 import io.noties.markwon.ext.tasklist.TaskListPlugin;
+import io.noties.markwon.image.AsyncDrawableSpan;
+import io.noties.markwon.image.ImageProps;
 import io.noties.markwon.image.glide.GlideImagesPlugin;
 import io.noties.markwon.inlineparser.MarkwonInlineParserPlugin;
 import io.noties.markwon.linkify.LinkifyPlugin;
@@ -46,11 +63,11 @@ import io.noties.markwon.simple.ext.SimpleExtPlugin;
 import io.noties.markwon.syntax.Prism4jThemeDarkula;
 import io.noties.markwon.syntax.Prism4jThemeDefault;
 import io.noties.markwon.syntax.SyntaxHighlightPlugin;
-import io.noties.prism4j.Prism4j;
-import io.noties.prism4j.annotations.PrismBundle;
 import it.niedermann.android.markdown.MarkdownEditor;
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.R;
+import it.niedermann.android.markdown.markwon.glide.ImageDimensionCache;
+import it.niedermann.android.markdown.markwon.plugins.AsyncSyntaxHighlightPlugin;
 import it.niedermann.android.markdown.markwon.plugins.CustomGlideStore;
 import it.niedermann.android.markdown.markwon.plugins.LinkClickInterceptorPlugin;
 import it.niedermann.android.markdown.markwon.plugins.RelativeImageUrlPlugin;
@@ -58,16 +75,47 @@ import it.niedermann.android.markdown.markwon.plugins.SearchHighlightPlugin;
 import it.niedermann.android.markdown.markwon.plugins.ThemePlugin;
 import it.niedermann.android.markdown.markwon.plugins.ToggleableTaskListPlugin;
 import it.niedermann.android.markdown.markwon.plugins.mentions.MentionsPlugin;
+import it.niedermann.android.markdown.markwon.span.ToggleTaskListSpan;
 
-@PrismBundle(includeAll = true, grammarLocatorClassName = ".MarkwonGrammarLocator")
 public class MarkwonMarkdownViewer extends AppCompatTextView implements MarkdownEditor {
 
-    private static final Prism4j prism4j = new Prism4j(new MarkwonGrammarLocator());
-    private final Markwon markwon;
+    /**
+     * Shared with all other viewers using the same settings, so it must not be configured for this viewer
+     */
+    @NonNull
+    private SharedMarkwon sharedMarkwon;
+    private final IncrementalMarkdownRenderer incrementalRenderer = new IncrementalMarkdownRenderer();
+    @NonNull
+    private final SearchHighlightPlugin searchHighlightPlugin;
+    @NonNull
+    private final Collection<Function<String, Boolean>> onLinkClickCallbacks = new CopyOnWriteArrayList<>();
+    @NonNull
+    private final ToggleTaskListSpan.OnToggleListener toggleListener = this::onCheckboxToggled;
     @Nullable
     private Consumer<CharSequence> listener = null;
     private final MutableLiveData<CharSequence> unrenderedText$ = new MutableLiveData<>();
     private final ExecutorService renderService;
+    /**
+     * Incremented for each requested render, so results of renders which have been superseded in the meantime can be discarded
+     */
+    private final AtomicInteger renderGeneration = new AtomicInteger();
+    private boolean renderInBackground = true;
+    @NonNull
+    private final RenderedMarkdownCache renderedMarkdownCache = RenderedMarkdownCache.getInstance();
+    @NonNull
+    private final ImageDimensionCache imageDimensionCache;
+    @NonNull
+    private final VisibleImageLoader visibleImageLoader = new VisibleImageLoader(this);
+    @NonNull
+    private final ViewTreeObserver.OnScrollChangedListener scrollChangedListener = visibleImageLoader::onViewportChanged;
+    private final boolean darkMode;
+    private final boolean mentionsEnabled;
+    @ColorInt
+    private int color;
+    @Nullable
+    private SingleSignOnAccount ssoAccount;
+    @Nullable
+    private String imagePrefix;
 
     public MarkwonMarkdownViewer(@NonNull Context context) {
         this(context, null);
@@ -94,25 +142,88 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
         final var theme = context.getTheme();
         theme.resolveAttribute(androidx.appcompat.R.attr.colorPrimary, typedValue, true);
 
-        this.markwon = createMarkwonBuilder(context, enableMentions, typedValue.data).build();
+        this.darkMode = PlatformThemeUtil.isDarkMode(context);
+        this.mentionsEnabled = enableMentions;
+        this.color = typedValue.data;
+        this.sharedMarkwon = SharedMarkwon.get(context, enableMentions, typedValue.data);
+        this.searchHighlightPlugin = new SearchHighlightPlugin(typedValue.data);
+        this.imageDimensionCache = ImageDimensionCache.getInstance(context);
+        if (enableMentions) {
+            // Do not resolve mentions with the account of other viewers sharing the plugin
+            this.sharedMarkwon.getPlugin(MentionsPlugin.class).setCurrentSingleSignOnAccount(this, null);
+        }
         this.renderService = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
                 new ArrayBlockingQueue<>(2),
                 new ThreadPoolExecutor.DiscardOldestPolicy());
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(scrollChangedListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollChangedListener);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        visibleImageLoader.onViewportChanged();
+    }
+
+    private void onCheckboxToggled(int toggledCheckboxPosition, int sourceOffset, boolean newCheckedState) {
+        final var oldUnrenderedText = unrenderedText$.getValue();
+        if (oldUnrenderedText == null) {
+            throw new IllegalStateException("Checkbox #" + toggledCheckboxPosition + ", but unrenderedText$ value is null.");
+        }
+
+        unrenderedText$.setValue(MarkdownUtil.setCheckboxStatusAtOffset(oldUnrenderedText, sourceOffset, newCheckedState)
+                .map(CharSequence.class::cast)
+                .orElseGet(() -> MarkdownUtil.setCheckboxStatus(oldUnrenderedText.toString(), toggledCheckboxPosition, newCheckedState)));
+        if (listener != null) {
+            listener.accept(unrenderedText$.getValue());
+        }
+
+        // https://stackoverflow.com/q/14785848
+        if (isTextSelectable()) {
+            rerender();
+        }
+    }
+
     private Markwon.Builder createMarkwonBuilder(@NonNull Context context,
                                                  boolean enableMentions,
                                                  @ColorInt int color) {
+        return createMarkwonBuilder(context, enableMentions, color, toggleListener, false)
+                .usePlugin(SearchHighlightPlugin.create(color));
+    }
+
+    /**
+     * The plugin configuration of all {@link MarkwonMarkdownViewer}s, see {@link SharedMarkwon}, which is also used by the {@link MarkdownPrerenderer}.
+     * Search highlighting is applied by each viewer itself.
+     *
+     * @param highlightInBackground whether code blocks get highlighted by the viewer after they have been displayed,
+     *                              see {@link AsyncSyntaxHighlightPlugin}, or while rendering
+     */
+    static Markwon.Builder createMarkwonBuilder(@NonNull Context context,
+                                                boolean enableMentions,
+                                                @ColorInt int color,
+                                                @NonNull ToggleTaskListSpan.OnToggleListener toggleListener,
+                                                boolean highlightInBackground) {
         final var prism4jTheme = PlatformThemeUtil.isDarkMode(context)
                 ? Prism4jThemeDarkula.create()
                 : Prism4jThemeDefault.create();
+        final var prism4j = LazyGrammarLocator.getInstance().getPrism4j();
 
         final var builder = Markwon.builder(context)
+                .textSetter(MarkwonMarkdownViewer::setPrecomputedTextIfPossible)
                 .usePlugin(ThemePlugin.create(context))
                 .usePlugin(StrikethroughPlugin.create())
                 .usePlugin(SimpleExtPlugin.create())
                 .usePlugin(MarkwonInlineParserPlugin.create())
-                .usePlugin(SearchHighlightPlugin.create(color))
                 .usePlugin(TablePlugin.create(context))
                 .usePlugin(TaskListPlugin.create(context))
                 .usePlugin(LinkifyPlugin.create(true))
@@ -120,32 +231,32 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
                 .usePlugin(LinkClickInterceptorPlugin.create())
                 .usePlugin(GlideImagesPlugin.create(new CustomGlideStore(context)))
                 .usePlugin(SoftBreakAddsNewLinePlugin.create())
-                .usePlugin(SyntaxHighlightPlugin.create(prism4j, prism4jTheme))
+                .usePlugin(highlightInBackground
+                        ? AsyncSyntaxHighlightPlugin.create(prism4j, prism4jTheme)
+                        : SyntaxHighlightPlugin.create(prism4j, prism4jTheme))
                 .usePlugin(RelativeImageUrlPlugin.create())
-                .usePlugin(new ToggleableTaskListPlugin((toggledCheckboxPosition, newCheckedState) -> {
-                    final var oldUnrenderedText = unrenderedText$.getValue();
-                    if (oldUnrenderedText == null) {
-                        throw new IllegalStateException("Checkbox #" + toggledCheckboxPosition + ", but unrenderedText$ value is null.");
-                    }
-
-                    unrenderedText$.setValue(MarkdownUtil.setCheckboxStatus(oldUnrenderedText.toString(), toggledCheckboxPosition, newCheckedState));
-                    if (listener != null) {
-                        listener.accept(unrenderedText$.getValue());
-                    }
-
-                    // https://stackoverflow.com/q/14785848
-                    if (isTextSelectable()) {
-                        rerender();
-                    }
-                }));
+                .usePlugin(ToggleableTaskListPlugin.create(toggleListener));
 
         if (enableMentions) {
-            return builder.usePlugin(MentionsPlugin.create(getContext(), color));
+            return builder.usePlugin(MentionsPlugin.create(context, color));
         }
 
         return builder;
     }
 
+    /**
+     * Sets {@link PrecomputedTextCompat} efficiently in case it has been computed for the current text metrics of the {@param textView}.
+     */
+    private static void setPrecomputedTextIfPossible(@NonNull TextView textView, @NonNull Spanned markdown, @NonNull TextView.BufferType bufferType, @NonNull Runnable onComplete) {
+        if (markdown instanceof PrecomputedTextCompat precomputedText
+                && precomputedText.getParams().equals(TextViewCompat.getTextMetricsParams(textView))) {
+            TextViewCompat.setPrecomputedText(textView, precomputedText);
+        } else {
+            textView.setText(markdown, bufferType);
+        }
+        onComplete.run();
+    }
+
     /**
      * @deprecated use {@link #createMarkwonBuilder(Context, boolean, int)} and {@link #setCurrentSingleSignOnAccount(SingleSignOnAccount, int)} to fetch and render mentions automatically.
      */
@@ -159,13 +270,11 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
 
     @Override
     public void registerOnLinkClickCallback(@NonNull Function<String, Boolean> callback) {
-        final var linkClickInterceptorPlugin = getPlugin(LinkClickInterceptorPlugin.class);
-        linkClickInterceptorPlugin.registerOnLinkClickCallback(callback);
+        this.onLinkClickCallbacks.add(callback);
     }
 
     public void setMarkdownImageUrlPrefix(@NonNull String prefix) {
-        final var relativeImageUrlPlugin = getPlugin(RelativeImageUrlPlugin.class);
-        relativeImageUrlPlugin.setImagePrefix(prefix);
+        this.imagePrefix = prefix;
     }
 
     @Override
@@ -181,19 +290,23 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
             listener.accept(unrenderedText$.getValue());
         }
         if (TextUtils.isEmpty(text)) {
+            renderGeneration.incrementAndGet();
             setText(text);
         } else {
             if (!text.equals(previousText)) {
-                this.renderService.execute(() -> post(() -> {
-                    this.markwon.setMarkdown(this, text.toString());
-                    if (afterRender != null) {
-                        afterRender.run();
-                    }
-                }));
+                render(text.toString(), afterRender);
             }
         }
     }
 
+    /**
+     * By default the markdown gets parsed and rendered on a background thread and only the result is set on the UI thread.
+     * Disabling this renders the markdown on the UI thread.
+     */
+    public void setRenderInBackground(boolean renderInBackground) {
+        this.renderInBackground = renderInBackground;
+    }
+
     /**
      * @param color which will be used for highlighting. See {@link #setSearchText(CharSequence)}
      * @deprecated Use {@link MarkdownEditor#setCurrentSingleSignOnAccount(SingleSignOnAccount, int)}
@@ -211,18 +324,20 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
 
     @Override
     public void setCurrentSingleSignOnAccount(@Nullable SingleSignOnAccount ssoAccount, @ColorInt int color) {
-        final var searchHighlightPlugin = getPlugin(SearchHighlightPlugin.class);
         searchHighlightPlugin.setColor(color);
 
-        final var mentionsPlugin = getPlugin(MentionsPlugin.class);
-        mentionsPlugin.setColor(color);
-        mentionsPlugin.setCurrentSingleSignOnAccount(ssoAccount);
+        if (this.color != color) {
+            this.sharedMarkwon = SharedMarkwon.get(getContext(), mentionsEnabled, color);
+        }
+        final var mentionsPlugin = sharedMarkwon.getPlugin(MentionsPlugin.class);
+        mentionsPlugin.setCurrentSingleSignOnAccount(this, ssoAccount);
+        this.color = color;
+        this.ssoAccount = ssoAccount;
         rerender();
     }
 
     @Override
     public void setSearchText(@Nullable CharSequence searchText, @Nullable Integer current) {
-        final var searchHighlightPlugin = getPlugin(SearchHighlightPlugin.class);
         searchHighlightPlugin.setSearchText(searchText, current, this);
         rerender();
     }
@@ -247,14 +362,126 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
         this.listener = listener;
     }
 
-    private <P extends MarkwonPlugin> P getPlugin(@NonNull Class<P> type) {
-        return requireNonNull(this.markwon.getPlugin(type));
+    private void rerender() {
+        final var currentValue = unrenderedText$.getValue();
+        render(currentValue == null ? "" : currentValue.toString(), null);
     }
 
-    private void rerender() {
-        this.renderService.execute(() -> post(() -> {
-            final var currentValue = unrenderedText$.getValue();
-            this.markwon.setMarkdown(this, currentValue == null ? "" : currentValue.toString());
+    private void render(@NonNull String markdown, @Nullable Runnable afterRender) {
+        final int generation = renderGeneration.incrementAndGet();
+        final var sharedMarkwon = this.sharedMarkwon;
+        final var ssoAccount = this.ssoAccount;
+        final var cacheKey = new RenderedMarkdownCache.Key(markdown, color, darkMode, mentionsEnabled, ssoAccount == null ? null : ssoAccount.name, imagePrefix);
+
+        if (!renderInBackground) {
+            this.renderService.execute(() -> post(() -> {
+                if (generation == renderGeneration.get()) {
+                    setRenderedMarkdown(sharedMarkwon, renderCached(sharedMarkwon, ssoAccount, cacheKey), generation);
+                    if (afterRender != null) {
+                        afterRender.run();
+                    }
+                }
+            }));
+            return;
+        }
+
+        final var textMetricsParams = TextViewCompat.getTextMetricsParams(this);
+        final var context = getContext();
+        this.renderService.execute(() -> {
+            if (generation != renderGeneration.get()) {
+                return;
+            }
+            final var bound = renderCached(sharedMarkwon, ssoAccount, cacheKey);
+            // Placeholders of images with known dimensions reserve their space, so loading them does not change the layout
+            imageDimensionCache.prefetch(context, bound);
+            final var rendered = precompute(bound, textMetricsParams);
+            post(() -> {
+                if (generation == renderGeneration.get()) {
+                    setRenderedMarkdown(sharedMarkwon, rendered, generation);
+                    if (afterRender != null) {
+                        afterRender.run();
+                    }
+                }
+            });
+        });
+    }
+
+    private void setRenderedMarkdown(@NonNull SharedMarkwon sharedMarkwon, @NonNull Spanned rendered, int generation) {
+        sharedMarkwon.markwon().setParsedMarkdown(this, rendered);
+        searchHighlightPlugin.afterSetText(this);
+        visibleImageLoader.onViewportChanged();
+        // Code blocks are displayed without highlighting first, render again as soon as the highlighting is available
+        sharedMarkwon.getPlugin(AsyncSyntaxHighlightPlugin.class).highlight(rendered, () -> post(() -> {
+            if (generation == renderGeneration.get()) {
+                rerender();
+            }
         }));
     }
+
+    /**
+     * @return the rendered markdown of the {@param cacheKey} from the {@link RenderedMarkdownCache} if possible, otherwise renders it and
+     * stores the result in the {@link RenderedMarkdownCache}. Only blocks which changed since the last render of this
+     * viewer get rendered again.
+     */
+    @NonNull
+    private Spanned renderCached(@NonNull SharedMarkwon sharedMarkwon,
+                                 @Nullable SingleSignOnAccount ssoAccount,
+                                 @NonNull RenderedMarkdownCache.Key cacheKey) {
+        final var cached = renderedMarkdownCache.get(cacheKey);
+        if (cached != null) {
+            return bind(sharedMarkwon, cached);
+        }
+        final var rendered = this.incrementalRenderer.render(cacheKey, markdown -> sharedMarkwon.render(markdown, ssoAccount, cacheKey.imagePrefix()));
+        renderedMarkdownCache.put(cacheKey, rendered);
+        return bind(sharedMarkwon, rendered);
+    }
+
+    /**
+     * @return a copy of the {@param rendered} markdown whose stateful spans are replaced by new ones bound to this viewer,
+     * so it can be displayed while the {@param rendered} markdown stays in the {@link RenderedMarkdownCache} and the
+     * {@link SharedMarkwon} stays unaware of this viewer.
+     */
+    @NonNull
+    private Spanned bind(@NonNull SharedMarkwon sharedMarkwon, @NonNull Spanned rendered) {
+        final var spannable = new SpannableStringBuilder(rendered);
+        final var configuration = sharedMarkwon.markwon().configuration();
+        LinkClickInterceptorPlugin.rebind(spannable, onLinkClickCallbacks);
+        ToggleableTaskListPlugin.rebind(spannable, configuration, toggleListener);
+        bindImages(spannable, configuration);
+        // Images get loaded as soon as they are scrolled into the window of the visibleImageLoader
+        VisibleImageLoader.defer(spannable);
+        sharedMarkwon.getPlugin(AsyncSyntaxHighlightPlugin.class).applyHighlighted(spannable);
+        return spannable;
+    }
+
+    /**
+     * Images are loaded into and displayed by the drawable of their {@link AsyncDrawableSpan}, so each view needs its own one.
+     */
+    private static void bindImages(@NonNull Spannable spannable, @NonNull MarkwonConfiguration configuration) {
+        final var spanFactory = configuration.spansFactory().get(Image.class);
+        if (spanFactory == null) {
+            return;
+        }
+        for (final var span : spannable.getSpans(0, spannable.length(), AsyncDrawableSpan.class)) {
+            final var drawable = span.getDrawable();
+            final var props = new RenderPropsImpl();
+            ImageProps.DESTINATION.set(props, drawable.getDestination());
+            ImageProps.IMAGE_SIZE.set(props, drawable.getImageSize());
+            ImageProps.REPLACEMENT_TEXT_IS_LINK.set(props, spannable.getSpans(spannable.getSpanStart(span), spannable.getSpanEnd(span), URLSpan.class).length > 0);
+            if (spanFactory.getSpans(configuration, props) instanceof AsyncDrawableSpan replacement) {
+                MarkdownUtil.replaceSpan(spannable, span, replacement);
+            }
+        }
+    }
+
+    @WorkerThread
+    @NonNull
+    private static Spanned precompute(@NonNull Spanned spanned, @NonNull PrecomputedTextCompat.Params params) {
+        // Images and tables change their size after the text has been set, which would invalidate the precomputed measurements
+        if (spanned.getSpans(0, spanned.length(), AsyncDrawableSpan.class).length > 0
+                || spanned.getSpans(0, spanned.length(), TableRowSpan.class).length > 0) {
+            return spanned;
+        }
+        return PrecomputedTextCompat.create(spanned, params);
+    }
 }
@@ -0,0 +1,111 @@
+package it.niedermann.android.markdown.markwon;
+
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.util.LruCache;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Objects;
+
+import io.noties.markwon.ext.tables.TableRowSpan;
+
+/**
+ * Process wide LRU cache of rendered markdown, so {@link MarkwonMarkdownViewer}s which get rebound to the same content,
+ * e.g. while scrolling a list back and forth, do not need to parse and render it again.
+ * <p>
+ * The size of the cache is measured in characters and spans of the cached entries.
+ * Cached results may contain spans with state, like the checked state of a checkbox or a loaded image.
+ * Those need to be replaced before a cached result can be displayed, see {@link MarkwonMarkdownViewer}.
+ */
+public class RenderedMarkdownCache {
+
+    private static final int DEFAULT_MAX_SIZE = 2_000_000;
+    @NonNull
+    private static final RenderedMarkdownCache INSTANCE = new RenderedMarkdownCache(DEFAULT_MAX_SIZE);
+
+    @NonNull
+    private final LruCache<Key, Entry> cache;
+
+    @VisibleForTesting
+    RenderedMarkdownCache(int maxSize) {
+        this.cache = new LruCache<>(maxSize) {
+            @Override
+            protected int sizeOf(Key key, Entry value) {
+                return value.size();
+            }
+        };
+    }
+
+    @NonNull
+    public static RenderedMarkdownCache getInstance() {
+        return INSTANCE;
+    }
+
+    @Nullable
+    public Spanned get(@NonNull Key key) {
+        final var entry = cache.get(key);
+        return entry == null ? null : entry.rendered();
+    }
+
+    /**
+     * @return whether the {@param rendered} markdown has been cached.
+     * Results containing tables are not cached, because table rows keep the layout of the view they are displayed in.
+     */
+    public boolean put(@NonNull Key key, @NonNull Spanned rendered) {
+        if (rendered.getSpans(0, rendered.length(), TableRowSpan.class).length > 0) {
+            return false;
+        }
+        final var copy = new SpannedString(rendered);
+        cache.put(key, new Entry(copy, key.markdown().length() + copy.length() + copy.getSpans(0, copy.length(), Object.class).length));
+        return true;
+    }
+
+    public boolean contains(@NonNull Key key) {
+        return cache.get(key) != null;
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Everything which leads to a different rendering result of the same markdown.
+     * The markdown is compared by its content, its hash code is cached by {@link String} itself.
+     *
+     * @param accountName name of the current {@link com.nextcloud.android.sso.model.SingleSignOnAccount} or <code>null</code>
+     */
+    public record Key(@NonNull String markdown,
+                      @ColorInt int color,
+                      boolean darkMode,
+                      boolean mentions,
+                      @Nullable String accountName,
+                      @Nullable String imagePrefix) {
+
+        /**
+         * @return a key for the given {@param markdown} with the same settings as this one
+         */
+        @NonNull
+        public Key withMarkdown(@NonNull String markdown) {
+            return new Key(markdown, color, darkMode, mentions, accountName, imagePrefix);
+        }
+
+        /**
+         * @return whether the same markdown would be rendered equally for both keys
+         */
+        public boolean hasSameSettings(@Nullable Key other) {
+            return other != null
+                    && color == other.color
+                    && darkMode == other.darkMode
+                    && mentions == other.mentions
+                    && Objects.equals(accountName, other.accountName)
+                    && Objects.equals(imagePrefix, other.imagePrefix);
+        }
+    }
+
+    private record Entry(@NonNull Spanned rendered, int size) {
+    }
+}
@@ -0,0 +1,79 @@
+package it.niedermann.android.markdown.markwon;
+
+import static java.util.Objects.requireNonNull;
+
+import android.content.Context;
+import android.text.Spanned;
+import android.view.ContextThemeWrapper;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.nextcloud.android.common.ui.util.PlatformThemeUtil;
+import com.nextcloud.android.sso.model.SingleSignOnAccount;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.noties.markwon.Markwon;
+import io.noties.markwon.MarkwonPlugin;
+import it.niedermann.android.markdown.markwon.plugins.RelativeImageUrlPlugin;
+import it.niedermann.android.markdown.markwon.plugins.mentions.MentionsPlugin;
+
+/**
+ * {@link Markwon} instance with the plugin configuration of {@link MarkwonMarkdownViewer}, shared by all viewers with the
+ * same color, dark mode and mentions settings.
+ * <p>
+ * Per view state like search results, link callbacks and checkbox listeners is kept by the viewers themselves.
+ * The account and image prefix are needed while rendering, so they are applied for each render. Some plugins keep state
+ * while rendering, therefore renders of a shared instance are serialized.
+ */
+final class SharedMarkwon {
+
+    private static final Map<Key, SharedMarkwon> INSTANCES = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final Markwon markwon;
+    private final boolean mentionsEnabled;
+
+    private SharedMarkwon(@NonNull Context context, boolean mentionsEnabled, @ColorInt int color) {
+        this.markwon = MarkwonMarkdownViewer.createMarkwonBuilder(context, mentionsEnabled, color, (position, sourceOffset, newCheckedState) -> {
+            // Checkboxes get bound to the viewer which displays them
+        }, true).build();
+        this.mentionsEnabled = mentionsEnabled;
+    }
+
+    /**
+     * @param context the plugins use the application context with the theme of this {@param context}
+     */
+    @NonNull
+    static SharedMarkwon get(@NonNull Context context, boolean mentionsEnabled, @ColorInt int color) {
+        return INSTANCES.computeIfAbsent(new Key(PlatformThemeUtil.isDarkMode(context), mentionsEnabled, color),
+                key -> new SharedMarkwon(new ContextThemeWrapper(context.getApplicationContext(), context.getTheme()), mentionsEnabled, color));
+    }
+
+    @NonNull
+    Markwon markwon() {
+        return markwon;
+    }
+
+    @NonNull
+    <P extends MarkwonPlugin> P getPlugin(@NonNull Class<P> type) {
+        return requireNonNull(markwon.getPlugin(type));
+    }
+
+    @NonNull
+    Spanned render(@NonNull String markdown, @Nullable SingleSignOnAccount ssoAccount, @Nullable String imagePrefix) {
+        synchronized (markwon) {
+            if (mentionsEnabled) {
+                getPlugin(MentionsPlugin.class).setCurrentSingleSignOnAccount(ssoAccount);
+            }
+            getPlugin(RelativeImageUrlPlugin.class).setImagePrefix(imagePrefix == null ? "" : imagePrefix);
+            return markwon.render(markwon.parse(markdown));
+        }
+    }
+
+    private record Key(boolean darkMode, boolean mentionsEnabled, @ColorInt int color) {
+    }
+}
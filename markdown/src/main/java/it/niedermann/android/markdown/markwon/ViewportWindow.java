@@ -0,0 +1,63 @@
+package it.niedermann.android.markdown.markwon;
+
+import android.graphics.Rect;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Measures which part of the text of a {@link TextView} is visible and a window around it, which covers the visible
+ * viewport plus one viewport height above and below.
+ */
+public final class ViewportWindow {
+
+    @NonNull
+    private final Rect visibleRect = new Rect();
+    private int visibleStart = -1;
+    private int visibleEnd = -1;
+    private int start = -1;
+    private int end = -1;
+
+    /**
+     * Measures the viewport of the {@param textView}.
+     *
+     * @return <code>false</code> if the {@param textView} has not been laid out yet or is not visible at all, in
+     * which case the previous measurement is kept
+     */
+    public boolean measure(@NonNull TextView textView) {
+        final var layout = textView.getLayout();
+        if (layout == null || !textView.getLocalVisibleRect(visibleRect)) {
+            return false;
+        }
+        final int length = textView.length();
+        final int top = visibleRect.top - textView.getTotalPaddingTop();
+        final int bottom = visibleRect.bottom - textView.getTotalPaddingTop();
+        final int margin = visibleRect.height();
+        visibleStart = Math.min(layout.getLineStart(layout.getLineForVertical(Math.max(top, 0))), length);
+        visibleEnd = Math.min(layout.getLineEnd(layout.getLineForVertical(bottom)), length);
+        start = Math.min(layout.getLineStart(layout.getLineForVertical(Math.max(top - margin, 0))), length);
+        end = Math.min(layout.getLineEnd(layout.getLineForVertical(bottom + margin)), length);
+        return true;
+    }
+
+    /**
+     * @return whether the visible part of the text lies within the range from {@param rangeStart} to {@param rangeEnd}
+     */
+    public boolean isVisibleWithin(int rangeStart, int rangeEnd) {
+        return visibleStart >= rangeStart && visibleEnd <= rangeEnd;
+    }
+
+    /**
+     * @return start of the first line of the window
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return end of the last line of the window
+     */
+    public int end() {
+        return end;
+    }
+}
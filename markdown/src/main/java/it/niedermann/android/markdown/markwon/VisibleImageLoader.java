@@ -0,0 +1,73 @@
+package it.niedermann.android.markdown.markwon;
+
+import android.text.Spanned;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+
+import io.noties.markwon.image.AsyncDrawableSpan;
+import it.niedermann.android.markdown.markwon.glide.DeferredImages;
+
+/**
+ * Loads only the images of a {@link TextView} which are within a window covering the visible viewport plus one
+ * viewport height above and below. Images leaving this window get replaced by their placeholder, which releases
+ * their bitmaps to Glide.
+ * <p>
+ * Images need to be {@link #defer(Spanned) deferred} before their text gets set, otherwise all of them start loading.
+ */
+final class VisibleImageLoader {
+
+    @NonNull
+    private final TextView textView;
+    @NonNull
+    private final ViewportWindow viewport = new ViewportWindow();
+
+    VisibleImageLoader(@NonNull TextView textView) {
+        this.textView = textView;
+    }
+
+    /**
+     * Defers loading all images of the {@param spanned} text until {@link #onViewportChanged()} finds them within the window.
+     */
+    static void defer(@NonNull Spanned spanned) {
+        for (final var span : spanned.getSpans(0, spanned.length(), AsyncDrawableSpan.class)) {
+            DeferredImages.defer(span.getDrawable());
+        }
+    }
+
+    /**
+     * Must be called whenever the visible part of the {@link TextView} or its text changes, e. g. when it gets scrolled.
+     */
+    void onViewportChanged() {
+        if (textView.getLayout() == null || !(textView.getText() instanceof Spanned text)) {
+            return;
+        }
+        final var spans = text.getSpans(0, text.length(), AsyncDrawableSpan.class);
+        if (spans.length == 0) {
+            return;
+        }
+
+        final int windowStart;
+        final int windowEnd;
+        if (viewport.measure(textView)) {
+            windowStart = viewport.start();
+            windowEnd = viewport.end();
+        } else {
+            windowStart = -1;
+            windowEnd = -1;
+        }
+
+        for (final var span : spans) {
+            final var drawable = span.getDrawable();
+            final boolean inWindow = text.getSpanStart(span) <= windowEnd && text.getSpanEnd(span) >= windowStart;
+            if (inWindow == DeferredImages.isDeferred(drawable)) {
+                if (inWindow) {
+                    DeferredImages.allow(drawable);
+                } else {
+                    DeferredImages.defer(drawable);
+                }
+                DeferredImages.reload(drawable);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package it.niedermann.android.markdown.markwon.glide;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import io.noties.markwon.image.AsyncDrawable;
+
+/**
+ * {@link AsyncDrawable}s whose image should not be loaded yet, e.g. because they are far outside the visible part of
+ * their view. {@link it.niedermann.android.markdown.markwon.plugins.CustomGlideStore} displays only a placeholder for them.
+ * <p>
+ * Changes take effect when the image of the {@link AsyncDrawable} gets loaded the next time, see {@link #reload(AsyncDrawable)}.
+ */
+public final class DeferredImages {
+
+    @NonNull
+    private static final Set<AsyncDrawable> DEFERRED = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private DeferredImages() {
+        // Util class
+    }
+
+    public static void defer(@NonNull AsyncDrawable drawable) {
+        DEFERRED.add(drawable);
+    }
+
+    public static void allow(@NonNull AsyncDrawable drawable) {
+        DEFERRED.remove(drawable);
+    }
+
+    public static boolean isDeferred(@NonNull AsyncDrawable drawable) {
+        return DEFERRED.contains(drawable);
+    }
+
+    /**
+     * Cancels the current request of an attached {@param drawable}, which releases a loaded image to Glide, and loads it again.
+     */
+    public static void reload(@NonNull AsyncDrawable drawable) {
+        final var callback = drawable.getCallback();
+        if (callback != null) {
+            drawable.setCallback2(null);
+            drawable.setCallback2(callback);
+        }
+    }
+}
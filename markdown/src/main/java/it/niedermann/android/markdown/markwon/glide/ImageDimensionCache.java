@@ -0,0 +1,232 @@
+package it.niedermann.android.markdown.markwon.glide;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.text.Spanned;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.noties.markwon.image.AsyncDrawableSpan;
+
+/**
+ * Remembers the dimensions of images by their URL, so placeholders can reserve the space of an image before it has
+ * been loaded and the text does not need to be laid out again when it has been loaded.
+ * <p>
+ * Dimensions are learned when an image has been loaded or {@link #prefetch(Context, Spanned) prefetched} by decoding
+ * only the bounds of images which are already in the disk cache of Glide. They are persisted in the cache directory.
+ */
+public class ImageDimensionCache {
+
+    private static final String TAG = ImageDimensionCache.class.getSimpleName();
+    private static final String FILE_NAME = "markdown_image_dimensions";
+    private static final int VERSION = 1;
+    private static final int MAX_SIZE = 1_000;
+    /**
+     * Longer URLs, e.g. data URLs, are not worth persisting
+     */
+    @VisibleForTesting
+    static final int MAX_URL_LENGTH = 2_048;
+    /**
+     * Time to wait for the lookups in the disk cache of Glide while {@link #prefetch(Context, Spanned) prefetching}
+     */
+    private static final long PREFETCH_TIMEOUT_MILLIS = 500;
+    @Nullable
+    private static ImageDimensionCache INSTANCE;
+
+    @NonNull
+    private final AtomicFile file;
+    /**
+     * Dimensions in access order, guarded by itself
+     */
+    @NonNull
+    private final Map<String, Size> dimensions = new LinkedHashMap<>(16, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<String, Size> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    /**
+     * Reads and writes the {@link #file} sequentially
+     */
+    @NonNull
+    private final ExecutorService executor = new ThreadPoolExecutor(0, 1, 10, SECONDS, new LinkedBlockingQueue<>());
+    @NonNull
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+
+    @VisibleForTesting
+    ImageDimensionCache(@NonNull File file) {
+        this.file = new AtomicFile(file);
+        executor.execute(this::read);
+    }
+
+    @NonNull
+    public static synchronized ImageDimensionCache getInstance(@NonNull Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new ImageDimensionCache(new File(context.getApplicationContext().getCacheDir(), FILE_NAME));
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @return the dimensions in pixels of the image at the given {@param url} if they are known
+     */
+    @Nullable
+    public Size get(@NonNull String url) {
+        synchronized (dimensions) {
+            return dimensions.get(url);
+        }
+    }
+
+    public void put(@NonNull String url, int width, int height) {
+        if (width <= 0 || height <= 0 || url.length() > MAX_URL_LENGTH) {
+            return;
+        }
+        final var size = new Size(width, height);
+        synchronized (dimensions) {
+            if (size.equals(dimensions.put(url, size))) {
+                return;
+            }
+        }
+        if (!writePending.getAndSet(true)) {
+            executor.execute(() -> {
+                writePending.set(false);
+                write();
+            });
+        }
+    }
+
+    /**
+     * Learns the dimensions of all images in the {@param spanned} markdown whose dimensions are not known yet but which
+     * are in the disk cache of Glide. Only the bounds get decoded, images which are not cached are not downloaded.
+     * <p>
+     * All images are looked up concurrently and images whose lookup takes longer than
+     * {@value #PREFETCH_TIMEOUT_MILLIS} ms in total are skipped.
+     */
+    @WorkerThread
+    public void prefetch(@NonNull Context context, @NonNull Spanned spanned) {
+        final var spans = spanned.getSpans(0, spanned.length(), AsyncDrawableSpan.class);
+        if (spans.length == 0) {
+            return;
+        }
+        final var requestManager = Glide.with(context.getApplicationContext());
+        final var urls = new ArrayList<String>(spans.length);
+        final var targets = new ArrayList<FutureTarget<File>>(spans.length);
+        for (final var span : spans) {
+            final var url = span.getDrawable().getDestination();
+            if (get(url) == null) {
+                urls.add(url);
+                targets.add(requestManager.downloadOnly().load(url).onlyRetrieveFromCache(true).submit());
+            }
+        }
+
+        final long deadline = System.nanoTime() + MILLISECONDS.toNanos(PREFETCH_TIMEOUT_MILLIS);
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                final var options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                try {
+                    final var cached = targets.get(i).get(Math.max(deadline - System.nanoTime(), 0), NANOSECONDS);
+                    BitmapFactory.decodeFile(cached.getAbsolutePath(), options);
+                    put(urls.get(i), options.outWidth, options.outHeight);
+                } catch (ExecutionException | TimeoutException e) {
+                    // Not in the disk cache or not found in time
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (final var target : targets) {
+                requestManager.clear(target);
+            }
+        }
+    }
+
+    /**
+     * Waits until all pending reads and writes of the persisted dimensions are done.
+     */
+    @VisibleForTesting
+    void awaitIdle() throws ExecutionException, InterruptedException {
+        executor.submit(() -> {
+        }).get();
+    }
+
+    @WorkerThread
+    private void read() {
+        try (final var stream = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (stream.readInt() != VERSION) {
+                return;
+            }
+            final int count = stream.readInt();
+            synchronized (dimensions) {
+                for (int i = 0; i < count; i++) {
+                    final var url = stream.readUTF();
+                    final var size = new Size(stream.readInt(), stream.readInt());
+                    // Dimensions learned in the meantime are more recent
+                    dimensions.putIfAbsent(url, size);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing persisted yet
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read image dimensions", e);
+        }
+    }
+
+    @WorkerThread
+    private void write() {
+        final ArrayList<Map.Entry<String, Size>> entries;
+        synchronized (dimensions) {
+            entries = new ArrayList<>(dimensions.entrySet());
+        }
+        FileOutputStream fileStream = null;
+        try {
+            fileStream = file.startWrite();
+            final var stream = new DataOutputStream(new BufferedOutputStream(fileStream));
+            stream.writeInt(VERSION);
+            stream.writeInt(entries.size());
+            for (final var entry : entries) {
+                stream.writeUTF(entry.getKey());
+                stream.writeInt(entry.getValue().getWidth());
+                stream.writeInt(entry.getValue().getHeight());
+            }
+            stream.flush();
+            file.finishWrite(fileStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write image dimensions", e);
+            if (fileStream != null) {
+                file.failWrite(fileStream);
+            }
+        }
+    }
+}
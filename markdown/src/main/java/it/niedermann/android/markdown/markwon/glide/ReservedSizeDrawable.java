@@ -0,0 +1,48 @@
+package it.niedermann.android.markdown.markwon.glide;
+
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.DrawableWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Px;
+
+/**
+ * Placeholder which has the size of the image it stands for and draws the given icon centered.
+ */
+public class ReservedSizeDrawable extends DrawableWrapper {
+
+    @Px
+    private final int width;
+    @Px
+    private final int height;
+
+    public ReservedSizeDrawable(@NonNull Drawable icon, @Px int width, @Px int height) {
+        super(icon);
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return width;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return height;
+    }
+
+    @Override
+    protected void onBoundsChange(@NonNull Rect bounds) {
+        final var icon = getDrawable();
+        if (icon == null) {
+            return;
+        }
+        final int iconWidth = Math.min(icon.getIntrinsicWidth(), bounds.width());
+        final int iconHeight = Math.min(icon.getIntrinsicHeight(), bounds.height());
+        final int left = bounds.left + (bounds.width() - iconWidth) / 2;
+        final int top = bounds.top + (bounds.height() - iconHeight) / 2;
+        icon.setBounds(left, top, left + iconWidth, top + iconHeight);
+    }
+}
@@ -0,0 +1,193 @@
+package it.niedermann.android.markdown.markwon.plugins;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import io.noties.markwon.AbstractMarkwonPlugin;
+import io.noties.markwon.MarkwonConfiguration;
+import io.noties.markwon.core.MarkwonTheme;
+import io.noties.markwon.syntax.Prism4jSyntaxHighlight;
+import io.noties.markwon.syntax.Prism4jTheme;
+import io.noties.markwon.syntax.SyntaxHighlight;
+import io.noties.prism4j.Prism4j;
+import it.niedermann.android.markdown.markwon.span.PendingSyntaxHighlightSpan;
+
+/**
+ * Like {@link io.noties.markwon.syntax.SyntaxHighlightPlugin}, but renders code blocks without highlighting and marks
+ * them with a {@link PendingSyntaxHighlightSpan} instead of highlighting them while rendering.
+ * <p>
+ * {@link #highlight(Spanned, Runnable)} highlights the pending code blocks of a displayed document in the background,
+ * {@link #applyHighlighted(Spannable)} applies the results to the next rendered document. Results are cached by
+ * language, code and theme. Code blocks which exceed the maximum length stay without highlighting. Code blocks which did
+ * not get highlighted within the time budget of their document are marked as skipped, so only this document stays
+ * without highlighting for them.
+ */
+public class AsyncSyntaxHighlightPlugin extends AbstractMarkwonPlugin {
+
+    private static final String TAG = AsyncSyntaxHighlightPlugin.class.getSimpleName();
+    private static final int DEFAULT_MAX_CODE_LENGTH = 20_000;
+    private static final long DEFAULT_TIME_BUDGET_MILLIS = 500;
+    private static final int CACHE_MAX_SIZE = 500_000;
+
+    /**
+     * Highlighted code blocks, sized by their length. Blocks which could not be highlighted are cached without spans.
+     */
+    @NonNull
+    private static final LruCache<Key, Spanned> CACHE = new LruCache<>(CACHE_MAX_SIZE) {
+        @Override
+        protected int sizeOf(Key key, Spanned value) {
+            return Math.max(1, value.length());
+        }
+    };
+    @NonNull
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, 1, 10, SECONDS, new LinkedBlockingQueue<>());
+
+    @NonNull
+    private final Prism4jTheme theme;
+    @NonNull
+    private final SyntaxHighlight syntaxHighlight;
+    private final int maxCodeLength;
+    private final long timeBudgetMillis;
+
+    private AsyncSyntaxHighlightPlugin(@NonNull Prism4j prism4j, @NonNull Prism4jTheme theme, int maxCodeLength, long timeBudgetMillis) {
+        this.theme = theme;
+        this.syntaxHighlight = Prism4jSyntaxHighlight.create(prism4j, theme);
+        this.maxCodeLength = maxCodeLength;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    @NonNull
+    public static AsyncSyntaxHighlightPlugin create(@NonNull Prism4j prism4j, @NonNull Prism4jTheme theme) {
+        return create(prism4j, theme, DEFAULT_MAX_CODE_LENGTH, DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param maxCodeLength    code blocks with more characters will not be highlighted
+     * @param timeBudgetMillis maximum time spent on highlighting the code blocks of one document
+     */
+    @NonNull
+    public static AsyncSyntaxHighlightPlugin create(@NonNull Prism4j prism4j, @NonNull Prism4jTheme theme, int maxCodeLength, long timeBudgetMillis) {
+        return new AsyncSyntaxHighlightPlugin(prism4j, theme, maxCodeLength, timeBudgetMillis);
+    }
+
+    @Override
+    public void configureTheme(@NonNull MarkwonTheme.Builder builder) {
+        builder
+                .codeTextColor(theme.textColor())
+                .codeBackgroundColor(theme.background());
+    }
+
+    @Override
+    public void configureConfiguration(@NonNull MarkwonConfiguration.Builder builder) {
+        builder.syntaxHighlight(this::highlightIfCached);
+    }
+
+    @NonNull
+    private CharSequence highlightIfCached(@Nullable String language, @NonNull String code) {
+        if (TextUtils.isEmpty(language) || code.isEmpty() || code.length() > maxCodeLength) {
+            return code;
+        }
+        final var highlighted = CACHE.get(new Key(language, code, theme.getClass()));
+        if (highlighted != null) {
+            return highlighted;
+        }
+        final var pending = new SpannableString(code);
+        pending.setSpan(new PendingSyntaxHighlightSpan(language, code), 0, code.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return pending;
+    }
+
+    /**
+     * Applies the cached highlighting to the pending code blocks of the {@param spannable}.
+     */
+    public void applyHighlighted(@NonNull Spannable spannable) {
+        for (final var span : spannable.getSpans(0, spannable.length(), PendingSyntaxHighlightSpan.class)) {
+            final var highlighted = CACHE.get(new Key(span.getLanguage(), span.getCode(), theme.getClass()));
+            if (highlighted == null) {
+                if (span.isSkipped()) {
+                    spannable.removeSpan(span);
+                }
+                continue;
+            }
+            final int start = spannable.getSpanStart(span);
+            if (spannable.getSpanEnd(span) - start == highlighted.length()) {
+                for (final var style : highlighted.getSpans(0, highlighted.length(), Object.class)) {
+                    spannable.setSpan(style, start + highlighted.getSpanStart(style), start + highlighted.getSpanEnd(style), highlighted.getSpanFlags(style));
+                }
+            }
+            spannable.removeSpan(span);
+        }
+    }
+
+    /**
+     * Highlights the pending code blocks of the {@param spanned} document in the background, from top to bottom until
+     * the time budget is exhausted. The remaining code blocks get {@link PendingSyntaxHighlightSpan#skip() skipped}.
+     *
+     * @param onHighlighted called on a background thread if highlighting is available for at least one pending code
+     *                      block, so the document can be rendered again
+     */
+    public void highlight(@NonNull Spanned spanned, @NonNull Runnable onHighlighted) {
+        final var pending = spanned.getSpans(0, spanned.length(), PendingSyntaxHighlightSpan.class);
+        if (pending.length == 0) {
+            return;
+        }
+        Arrays.sort(pending, Comparator.comparingInt(spanned::getSpanStart));
+        EXECUTOR.execute(() -> {
+            if (highlight(pending)) {
+                onHighlighted.run();
+            }
+        });
+    }
+
+    /**
+     * @return whether highlighting is available for at least one of the {@param pending} code blocks
+     */
+    @VisibleForTesting
+    boolean highlight(@NonNull PendingSyntaxHighlightSpan[] pending) {
+        final long deadline = System.nanoTime() + MILLISECONDS.toNanos(timeBudgetMillis);
+        boolean highlightedAny = false;
+        for (final var span : pending) {
+            if (span.isSkipped()) {
+                continue;
+            }
+            final var key = new Key(span.getLanguage(), span.getCode(), theme.getClass());
+            final var cached = CACHE.get(key);
+            if (cached != null) {
+                // Highlighted in the meantime for an other document
+                highlightedAny |= cached.getSpans(0, cached.length(), Object.class).length > 0;
+            } else if (System.nanoTime() - deadline >= 0) {
+                span.skip();
+            } else {
+                try {
+                    final var highlighted = new SpannedString(syntaxHighlight.highlight(span.getLanguage(), span.getCode()));
+                    CACHE.put(key, highlighted);
+                    highlightedAny |= highlighted.getSpans(0, highlighted.length(), Object.class).length > 0;
+                } catch (Throwable t) {
+                    Log.w(TAG, "Could not highlight " + span.getLanguage(), t);
+                    CACHE.put(key, new SpannedString(span.getCode()));
+                }
+            }
+        }
+        return highlightedAny;
+    }
+
+    private record Key(@NonNull String language, @NonNull String code, @NonNull Class<? extends Prism4jTheme> theme) {
+    }
+}
@@ -4,41 +4,93 @@ import android.content.Context;
 import android.graphics.drawable.Drawable;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.content.res.AppCompatResources;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.target.Target;
 
 import io.noties.markwon.image.AsyncDrawable;
 import io.noties.markwon.image.glide.GlideImagesPlugin;
 import it.niedermann.android.markdown.R;
+import it.niedermann.android.markdown.markwon.glide.DeferredImages;
 import it.niedermann.android.markdown.markwon.glide.DownsampleWithMaxWidth;
+import it.niedermann.android.markdown.markwon.glide.ImageDimensionCache;
+import it.niedermann.android.markdown.markwon.glide.ReservedSizeDrawable;
 
 /**
  * <ul>
  *      <li>Applies downscaling via {@link DownsampleWithMaxWidth} to avoid <a href="https://github.com/stefan-niedermann/nextcloud-notes/issues/1034">issues with large images</a></li>
- *      <li>Adds a placeholder while loading an image</li>
+ *      <li>Adds a placeholder while loading an image, which has the size of the image in case its dimensions are known from the {@link ImageDimensionCache}</li>
  *      <li>Adds a "broken image" placeholder in case of an error</li>
+ *      <li>Only displays the placeholder for {@link DeferredImages}</li>
  *  </ul>
  */
 public class CustomGlideStore implements GlideImagesPlugin.GlideStore {
+    private final Context context;
     private final RequestManager requestManager;
     private final DownsampleWithMaxWidth downsampleWithMaxWidth;
+    private final ImageDimensionCache imageDimensionCache;
 
     public CustomGlideStore(@NonNull Context context) {
+        this.context = context;
         this.requestManager = Glide.with(context);
         downsampleWithMaxWidth = new DownsampleWithMaxWidth(context.getResources().getDisplayMetrics().widthPixels);
+        imageDimensionCache = ImageDimensionCache.getInstance(context);
     }
 
     @NonNull
     @Override
     public RequestBuilder<Drawable> load(@NonNull AsyncDrawable drawable) {
-        return requestManager
-                .load(drawable.getDestination())
+        final var destination = drawable.getDestination();
+        final var placeholder = createPlaceholder(destination);
+        if (DeferredImages.isDeferred(drawable)) {
+            // Requesting nothing displays the fallback without touching the network or a cache
+            final var request = requestManager.load((String) null);
+            return placeholder == null
+                    ? request.fallback(R.drawable.ic_baseline_image_24)
+                    : request.fallback(placeholder);
+        }
+
+        final var request = requestManager
+                .load(destination)
                 .downsample(downsampleWithMaxWidth)
-                .placeholder(R.drawable.ic_baseline_image_24)
-                .error(R.drawable.ic_baseline_broken_image_24);
+                .error(R.drawable.ic_baseline_broken_image_24)
+                .listener(new RequestListener<>() {
+                    @Override
+                    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
+                        return false;
+                    }
+
+                    @Override
+                    public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target, DataSource dataSource, boolean isFirstResource) {
+                        imageDimensionCache.put(destination, resource.getIntrinsicWidth(), resource.getIntrinsicHeight());
+                        return false;
+                    }
+                });
+
+        return placeholder == null
+                ? request.placeholder(R.drawable.ic_baseline_image_24)
+                : request.placeholder(placeholder);
+    }
+
+    /**
+     * @return a placeholder which reserves the space of the downsampled image or <code>null</code> if its dimensions are unknown
+     */
+    @Nullable
+    private Drawable createPlaceholder(@NonNull String destination) {
+        final var size = imageDimensionCache.get(destination);
+        final var icon = size == null ? null : AppCompatResources.getDrawable(context, R.drawable.ic_baseline_image_24);
+        if (icon == null) {
+            return null;
+        }
+        final float scale = downsampleWithMaxWidth.getScaleFactor(size.getWidth(), size.getHeight(), Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+        return new ReservedSizeDrawable(icon, Math.round(size.getWidth() * scale), Math.round(size.getHeight() * scale));
     }
 
     @Override
@@ -1,5 +1,7 @@
 package it.niedermann.android.markdown.markwon.plugins;
 
+import android.text.Spannable;
+
 import androidx.annotation.NonNull;
 
 import org.commonmark.node.Link;
@@ -12,6 +14,7 @@ import io.noties.markwon.AbstractMarkwonPlugin;
 import io.noties.markwon.MarkwonPlugin;
 import io.noties.markwon.MarkwonSpansFactory;
 import io.noties.markwon.core.CoreProps;
+import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.markwon.span.InterceptedURLSpan;
 
 public class LinkClickInterceptorPlugin extends AbstractMarkwonPlugin {
@@ -29,6 +32,16 @@ public class LinkClickInterceptorPlugin extends AbstractMarkwonPlugin {
         builder.setFactory(Link.class, (configuration, props) -> new InterceptedURLSpan(onLinkClickCallbacks, CoreProps.LINK_DESTINATION.get(props)));
     }
 
+    /**
+     * Replaces all {@link InterceptedURLSpan}s of an already rendered {@param spannable}, e.g. one from a cache or one
+     * rendered by a shared plugin, with spans which notify the given {@param onLinkClickCallbacks}.
+     */
+    public static void rebind(@NonNull Spannable spannable, @NonNull Collection<Function<String, Boolean>> onLinkClickCallbacks) {
+        for (final var span : spannable.getSpans(0, spannable.length(), InterceptedURLSpan.class)) {
+            MarkdownUtil.replaceSpan(spannable, span, new InterceptedURLSpan(onLinkClickCallbacks, span.getURL()));
+        }
+    }
+
     public void registerOnLinkClickCallback(@NonNull Function<String, Boolean> callback) {
         this.onLinkClickCallbacks.add(callback);
     }
@@ -3,7 +3,12 @@ package it.niedermann.android.markdown.markwon.plugins;
 import static it.niedermann.android.markdown.MarkdownUtil.getContentAsSpannable;
 
 import android.content.Context;
+import android.os.Build;
+import android.text.PrecomputedText;
+import android.text.Spannable;
+import android.text.SpannableString;
 import android.text.TextUtils;
+import android.text.style.MetricAffectingSpan;
 import android.util.TypedValue;
 import android.widget.TextView;
 
@@ -15,11 +20,12 @@ import io.noties.markwon.AbstractMarkwonPlugin;
 import io.noties.markwon.MarkwonPlugin;
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.model.SearchSpan;
+import it.niedermann.android.markdown.search.CompiledSearch;
 
 public class SearchHighlightPlugin extends AbstractMarkwonPlugin {
 
     @Nullable
-    private CharSequence searchText = null;
+    private CompiledSearch search = null;
     @Nullable
     private Integer current = null;
     @ColorInt
@@ -50,9 +56,9 @@ public class SearchHighlightPlugin extends AbstractMarkwonPlugin {
         this.current = current;
         MarkdownUtil.removeSpans(getContentAsSpannable(textView), SearchSpan.class);
         if (TextUtils.isEmpty(searchText)) {
-            this.searchText = null;
+            this.search = null;
         } else {
-            this.searchText = searchText;
+            this.search = CompiledSearch.compile(searchText);
             afterSetText(textView);
         }
     }
@@ -72,9 +78,20 @@ public class SearchHighlightPlugin extends AbstractMarkwonPlugin {
     @Override
     public void afterSetText(@NonNull TextView textView) {
         super.afterSetText(textView);
-        if (this.searchText != null) {
-            final var spannable = getContentAsSpannable(textView);
-            MarkdownUtil.searchAndColor(textView.getContext(), spannable, searchText, color, current);
+        if (this.search != null) {
+            final var spannable = getHighlightableContent(textView);
+            MarkdownUtil.searchAndColor(textView.getContext(), spannable, search, color, current);
         }
     }
+
+    /**
+     * {@link PrecomputedText} does not accept {@link MetricAffectingSpan}s like {@link SearchSpan}, so it gets replaced by a plain {@link Spannable}.
+     */
+    @NonNull
+    private static Spannable getHighlightableContent(@NonNull TextView textView) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && textView.getText() instanceof PrecomputedText) {
+            textView.setText(new SpannableString(textView.getText()), TextView.BufferType.SPANNABLE);
+        }
+        return getContentAsSpannable(textView);
+    }
 }
@@ -2,11 +2,13 @@ package it.niedermann.android.markdown.markwon.plugins;
 
 import static java.util.Comparator.comparingInt;
 
+import android.text.Spannable;
 import android.text.style.ClickableSpan;
 import android.util.Range;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import org.commonmark.node.AbstractVisitor;
@@ -19,18 +21,22 @@ import org.commonmark.node.Text;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import io.noties.markwon.AbstractMarkwonPlugin;
+import io.noties.markwon.MarkwonConfiguration;
 import io.noties.markwon.MarkwonVisitor;
+import io.noties.markwon.RenderPropsImpl;
 import io.noties.markwon.SpannableBuilder;
 import io.noties.markwon.SpannableBuilder.Span;
 import io.noties.markwon.ext.tasklist.TaskListItem;
 import io.noties.markwon.ext.tasklist.TaskListProps;
 import io.noties.markwon.ext.tasklist.TaskListSpan;
+import it.niedermann.android.markdown.MarkdownLineIndex;
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.markwon.span.ToggleTaskListSpan;
 
@@ -41,12 +47,38 @@ import it.niedermann.android.markdown.markwon.span.ToggleTaskListSpan;
 public class ToggleableTaskListPlugin extends AbstractMarkwonPlugin {
 
     @NonNull
-    private final BiConsumer<Integer, Boolean> toggleListener;
+    private final ToggleTaskListSpan.OnToggleListener toggleListener;
+    @Nullable
+    private MarkdownLineIndex lineIndex;
 
     public ToggleableTaskListPlugin(@NonNull BiConsumer<Integer, Boolean> toggleListener) {
+        this((position, ignoredSourceOffset, newCheckedState) -> toggleListener.accept(position, newCheckedState));
+    }
+
+    private ToggleableTaskListPlugin(@NonNull ToggleTaskListSpan.OnToggleListener toggleListener) {
         this.toggleListener = toggleListener;
     }
 
+    /**
+     * The {@param toggleListener} will additionally receive the offset of the toggled checkbox in the markdown source,
+     * which allows to toggle it without scanning the whole source again.
+     *
+     * @see MarkdownUtil#setCheckboxStatusAtOffset(CharSequence, int, boolean)
+     */
+    public static ToggleableTaskListPlugin create(@NonNull ToggleTaskListSpan.OnToggleListener toggleListener) {
+        return new ToggleableTaskListPlugin(toggleListener);
+    }
+
+    /**
+     * Indexes the checkboxes of the markdown source, so each {@link ToggleTaskListSpan} can remember the source offset of its checkbox.
+     */
+    @NonNull
+    @Override
+    public String processMarkdown(@NonNull String markdown) {
+        this.lineIndex = MarkdownLineIndex.of(markdown);
+        return super.processMarkdown(markdown);
+    }
+
     /**
      * Prepares {@link TaskListSpan}s and marks each one with a {@link ToggleMarkerSpan} in the first step.
      * The {@link ToggleMarkerSpan} are different from {@link TaskListSpan}s as they will stop on nested tasks instead of spanning the whole tasks including its subtasks.
@@ -108,20 +140,55 @@ public class ToggleableTaskListPlugin extends AbstractMarkwonPlugin {
         super.afterRender(node, visitor);
 
         final var markerSpans = getSortedSpans(visitor.builder(), ToggleMarkerSpan.class, 0, visitor.builder().length());
+        final var lineIndex = this.lineIndex;
+        this.lineIndex = null;
 
         for (int position = 0; position < markerSpans.size(); position++) {
             final var markerSpan = markerSpans.get(position);
             final int start = markerSpan.start;
             final int end = markerSpan.end;
+            final int sourceOffset = lineIndex != null && position < lineIndex.getCheckboxCount()
+                    ? lineIndex.getCheckboxOffset(position)
+                    : -1;
             final var freeRanges = findFreeRanges(visitor.builder(), start, end);
             for (Range<Integer> freeRange : freeRanges) {
                 visitor.builder().setSpan(
-                        new ToggleTaskListSpan(toggleListener, ((ToggleMarkerSpan) markerSpan.what).getTaskListSpan(), position),
+                        new ToggleTaskListSpan(toggleListener, ((ToggleMarkerSpan) markerSpan.what).getTaskListSpan(), position, sourceOffset),
                         freeRange.getLower(), freeRange.getUpper());
             }
         }
     }
 
+    /**
+     * Replaces the {@link TaskListSpan}s and {@link ToggleTaskListSpan}s of an already rendered {@param spannable}, e.g. one
+     * from a cache or one rendered by a shared plugin, with new ones which notify the given {@param toggleListener}.
+     * Toggling a checkbox changes the state of its {@link TaskListSpan}, so those can not be shared between texts.
+     */
+    public static void rebind(@NonNull Spannable spannable,
+                              @NonNull MarkwonConfiguration configuration,
+                              @NonNull ToggleTaskListSpan.OnToggleListener toggleListener) {
+        final var spanFactory = configuration.spansFactory().get(TaskListItem.class);
+        final var replacements = new IdentityHashMap<TaskListSpan, TaskListSpan>();
+        if (spanFactory != null) {
+            for (final var span : spannable.getSpans(0, spannable.length(), TaskListSpan.class)) {
+                final var props = new RenderPropsImpl();
+                TaskListProps.DONE.set(props, span.isDone());
+                if (spanFactory.getSpans(configuration, props) instanceof TaskListSpan replacement) {
+                    replacements.put(span, replacement);
+                    MarkdownUtil.replaceSpan(spannable, span, replacement);
+                }
+            }
+        }
+        for (final var span : spannable.getSpans(0, spannable.length(), ToggleMarkerSpan.class)) {
+            final var taskListSpan = span.getTaskListSpan();
+            MarkdownUtil.replaceSpan(spannable, span, new ToggleMarkerSpan(replacements.getOrDefault(taskListSpan, taskListSpan)));
+        }
+        for (final var span : spannable.getSpans(0, spannable.length(), ToggleTaskListSpan.class)) {
+            final var taskListSpan = span.getTaskListSpan();
+            MarkdownUtil.replaceSpan(spannable, span, new ToggleTaskListSpan(toggleListener, replacements.getOrDefault(taskListSpan, taskListSpan), span.getPosition(), span.getSourceOffset()));
+        }
+    }
+
     /**
      * Removes {@link ToggleMarkerSpan}s from {@param textView}.
      */
@@ -1,7 +1,5 @@
 package it.niedermann.android.markdown.markwon.plugins.mentions;
 
-import static java.util.function.Predicate.not;
-
 import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.text.Spanned;
@@ -18,9 +16,10 @@ import com.nextcloud.android.sso.model.SingleSignOnAccount;
 
 import org.commonmark.parser.Parser;
 
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -39,8 +38,11 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
 
     @NonNull
     private final MentionsCache cache;
+    /**
+     * The latest executor resolving mentions for each {@link TextView}, which gets cancelled when a new text is set
+     */
     @NonNull
-    private final Collection<ExecutorService> executors = new HashSet<>(2);
+    private final Map<TextView, ExecutorService> executors = Collections.synchronizedMap(new WeakHashMap<>());
     @NonNull
     private final Context context;
     @NonNull
@@ -53,6 +55,11 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
     private final AtomicReference<Drawable> avatarBroken = new AtomicReference<>();
     @NonNull
     private final AtomicReference<SingleSignOnAccount> ssoAccountRef = new AtomicReference<>();
+    /**
+     * Accounts of {@link TextView}s which share this plugin, see {@link #setCurrentSingleSignOnAccount(TextView, SingleSignOnAccount)}
+     */
+    @NonNull
+    private final Map<TextView, SingleSignOnAccount> textViewSsoAccounts = Collections.synchronizedMap(new WeakHashMap<>());
     @NonNull
     private final AtomicInteger avatarSizeRef = new AtomicInteger();
 
@@ -96,11 +103,10 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
 
     @Override
     public void beforeSetText(@NonNull TextView textView, @NonNull Spanned markdown) {
-        executors.stream()
-                .filter(not(ExecutorService::isShutdown))
-                .forEach(ExecutorService::shutdownNow);
-
-        executors.removeIf(ExecutorService::isShutdown);
+        final var executor = executors.remove(textView);
+        if (executor != null && !executor.isShutdown()) {
+            executor.shutdownNow();
+        }
 
         super.beforeSetText(textView, markdown);
     }
@@ -108,10 +114,10 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
     @Override
     public void afterSetText(@NonNull TextView textView) {
         super.afterSetText(textView);
-        final var ssoAccount = ssoAccountRef.get();
+        final var ssoAccount = getCurrentSingleSignOnAccount(textView);
         if (ssoAccount != null) {
             final var executor = Executors.newFixedThreadPool(2);
-            executors.add(executor);
+            executors.put(textView, executor);
             executor.submit(() -> {
                 final var spannable = MarkdownUtil.getContentAsSpannable(textView);
                 try {
@@ -150,6 +156,24 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
         ssoAccountRef.set(ssoAccount);
     }
 
+    /**
+     * Sets the account which is used to resolve the mentions of the given {@param textView} after its text has been set,
+     * in case this plugin is shared by multiple {@link TextView}s with different accounts.
+     * Rendering uses the account set by {@link #setCurrentSingleSignOnAccount(SingleSignOnAccount)}.
+     */
+    public void setCurrentSingleSignOnAccount(@NonNull TextView textView, @Nullable SingleSignOnAccount ssoAccount) {
+        textViewSsoAccounts.put(textView, ssoAccount);
+    }
+
+    @Nullable
+    private SingleSignOnAccount getCurrentSingleSignOnAccount(@NonNull TextView textView) {
+        synchronized (textViewSsoAccounts) {
+            return textViewSsoAccounts.containsKey(textView)
+                    ? textViewSsoAccounts.get(textView)
+                    : ssoAccountRef.get();
+        }
+    }
+
     public void setColor(@ColorInt int color) {
         final var utils = ThemeUtils.Companion.of(color);
 
@@ -0,0 +1,46 @@
+package it.niedermann.android.markdown.markwon.span;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Marks a code block which is displayed without syntax highlighting until it has been highlighted in the background.
+ *
+ * @see it.niedermann.android.markdown.markwon.plugins.AsyncSyntaxHighlightPlugin
+ */
+public class PendingSyntaxHighlightSpan {
+
+    @NonNull
+    private final String language;
+    @NonNull
+    private final String code;
+    /**
+     * Whether the time budget of the document has been exhausted before this code block got highlighted
+     */
+    private volatile boolean skipped = false;
+
+    public PendingSyntaxHighlightSpan(@NonNull String language, @NonNull String code) {
+        this.language = language;
+        this.code = code;
+    }
+
+    @NonNull
+    public String getLanguage() {
+        return language;
+    }
+
+    @NonNull
+    public String getCode() {
+        return code;
+    }
+
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Keeps the document of this span without highlighting for this code block, even when it gets rendered again.
+     */
+    public void skip() {
+        this.skipped = true;
+    }
+}
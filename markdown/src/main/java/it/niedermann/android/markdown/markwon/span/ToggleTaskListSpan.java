@@ -15,14 +15,45 @@ public class ToggleTaskListSpan extends ClickableSpan {
 
     private static final String TAG = ToggleTaskListSpan.class.getSimpleName();
 
-    private final BiConsumer<Integer, Boolean> toggleListener;
+    private final OnToggleListener toggleListener;
     private final TaskListSpan span;
     private final int position;
+    private final int sourceOffset;
 
     public ToggleTaskListSpan(@NonNull BiConsumer<Integer, Boolean> toggleListener, @NonNull TaskListSpan span, int position) {
+        this((toggledPosition, ignoredSourceOffset, newCheckedState) -> toggleListener.accept(toggledPosition, newCheckedState), span, position, -1);
+    }
+
+    /**
+     * @param sourceOffset offset of the character between the brackets of this checkbox in the markdown source, or <code>-1</code> if unknown
+     */
+    public ToggleTaskListSpan(@NonNull OnToggleListener toggleListener, @NonNull TaskListSpan span, int position, int sourceOffset) {
         this.toggleListener = toggleListener;
         this.span = span;
         this.position = position;
+        this.sourceOffset = sourceOffset;
+    }
+
+    @NonNull
+    public TaskListSpan getTaskListSpan() {
+        return span;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getSourceOffset() {
+        return sourceOffset;
+    }
+
+    /**
+     * @return a span for the same checkbox in a document where it is preceded by {@param precedingCheckboxes} additional
+     * checkboxes and {@param precedingCharacters} additional characters of markdown source
+     */
+    @NonNull
+    public ToggleTaskListSpan shift(int precedingCheckboxes, int precedingCharacters) {
+        return new ToggleTaskListSpan(toggleListener, span, position + precedingCheckboxes, sourceOffset < 0 ? sourceOffset : sourceOffset + precedingCharacters);
     }
 
     @Override
@@ -31,7 +62,7 @@ public class ToggleTaskListSpan extends ClickableSpan {
             widget.invalidate();
             span.setDone(!span.isDone());
             widget.invalidate();
-            toggleListener.accept(position, span.isDone());
+            toggleListener.onToggle(position, sourceOffset, span.isDone());
         } else {
             Log.w(TAG, "Prevented toggling checkbox because the view is disabled");
         }
@@ -41,4 +72,14 @@ public class ToggleTaskListSpan extends ClickableSpan {
     public void updateDrawState(@NonNull TextPaint ds) {
         // NoOp to remove underline text decoration
     }
-}
\ No newline at end of file
+
+    @FunctionalInterface
+    public interface OnToggleListener {
+        /**
+         * @param position        the ordinal of the toggled checkbox among all rendered checkboxes
+         * @param sourceOffset    offset of the character between the brackets of the checkbox in the markdown source, or <code>-1</code> if unknown
+         * @param newCheckedState whether the checkbox is checked now
+         */
+        void onToggle(int position, int sourceOffset, boolean newCheckedState);
+    }
+}
@@ -1,13 +1,10 @@
 package it.niedermann.android.markdown.markwon.textwatcher;
 
-import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
 import static it.niedermann.android.markdown.MarkdownUtil.getListItemIfIsEmpty;
 import static it.niedermann.android.markdown.MarkdownUtil.getOrderedListNumber;
-import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
 import static it.niedermann.android.markdown.MarkdownUtil.lineStartsWithCheckbox;
 
 import android.text.Editable;
-import android.text.TextWatcher;
 
 import androidx.annotation.NonNull;
 
@@ -19,63 +16,46 @@ import it.niedermann.android.markdown.model.EListType;
 /**
  * Automatically continues lists and checkbox lists when pressing enter
  */
-public class AutoContinuationTextWatcher extends InterceptorTextWatcher {
+public class AutoContinuationTextWatcher implements EditStage {
 
     @NonNull
     private final MarkwonMarkdownEditor editText;
 
     private CharSequence customText = null;
-    private CharSequence oldText = null;
     private boolean isInsert = true;
     private int sequenceStart = 0;
     private static final Pattern REGEX_WHITESPACES = Pattern.compile("^\\s*");
 
-    public AutoContinuationTextWatcher(@NonNull TextWatcher originalWatcher, @NonNull MarkwonMarkdownEditor editText) {
-        super(originalWatcher);
+    public AutoContinuationTextWatcher(@NonNull MarkwonMarkdownEditor editText) {
         this.editText = editText;
     }
 
     @Override
-    public void onTextChanged(CharSequence s, int start, int before, int count) {
-        if (count > 0) {
-            final var inserted = getInsertedString(s, start, before, count);
-            if (inserted.length() > 0 && inserted.charAt(inserted.length() - 1) == '\n') {
-                handleNewlineInserted(s, start, count);
-            }
+    public void onTextChanged(@NonNull EditContext context) {
+        if (context.isLineBreakAppended() && context.lineType() != EditContext.LineType.TEXT) {
+            handleNewlineInserted(context);
         }
-        oldText = s.toString();
-        originalWatcher.onTextChanged(s, start, before, count);
     }
 
     @Override
-    public void afterTextChanged(Editable s) {
-        if (customText != null) {
-            final var customText = this.customText;
-            this.customText = null;
-            if (isInsert) {
-                insertCustomText(s, customText);
-            } else {
-                deleteCustomText(s, customText);
-            }
-        } else {
-            originalWatcher.afterTextChanged(s);
+    public boolean afterTextChanged(@NonNull Editable s, @NonNull EditContext context) {
+        if (customText == null) {
+            return false;
         }
-        editText.setMarkdownStringModel(s);
-    }
-
-    private CharSequence getInsertedString(CharSequence newText, int start, int before, int count) {
-        if (newText != null && newText.length() > (oldText == null ? 0 : oldText.length())) {
-            // character added
-            final int position = start + before;
-            return newText.subSequence(position, position + count - before);
+        final var customText = this.customText;
+        this.customText = null;
+        if (isInsert) {
+            insertCustomText(s, customText);
+        } else {
+            deleteCustomText(s, customText);
         }
-        return "";
+        return true;
     }
 
     private void deleteCustomText(Editable s, CharSequence customText) {
         int cutPosition = sequenceStart;
         for (int i = 0; i < customText.length(); i++) {
-            if (oldText.charAt(cutPosition) == customText.charAt(i)) {
+            if (s.charAt(cutPosition) == customText.charAt(i)) {
                 cutPosition++;
             } else break;
         }
@@ -87,10 +67,9 @@ public class AutoContinuationTextWatcher extends InterceptorTextWatcher {
         s.insert(sequenceStart, customText);
     }
 
-    private void handleNewlineInserted(CharSequence originalSequence, int start, int count) {
-        final var s = originalSequence.subSequence(0, originalSequence.length());
-        final int startOfLine = getStartOfLine(s, start);
-        final String line = s.subSequence(startOfLine, getEndOfLine(s, start)).toString();
+    private void handleNewlineInserted(@NonNull EditContext context) {
+        final int startOfLine = context.lineStart();
+        final String line = context.line();
 
         final var emptyListString = getListItemIfIsEmpty(line);
         if (emptyListString.isPresent()) {
@@ -111,7 +90,7 @@ public class AutoContinuationTextWatcher extends InterceptorTextWatcher {
                     builder.append(isPlainList ? listType.listSymbolWithTrailingSpace : listType.checkboxUncheckedWithTrailingSpace);
                     customText = builder;
                     isInsert = true;
-                    sequenceStart = start + count;
+                    sequenceStart = context.start() + context.count();
                     return;
                 }
             }
@@ -120,7 +99,7 @@ public class AutoContinuationTextWatcher extends InterceptorTextWatcher {
             if (orderedListNumber.isPresent()) {
                 customText = builder.append(orderedListNumber.get() + 1).append(". ");
                 isInsert = true;
-                sequenceStart = start + count;
+                sequenceStart = context.start() + context.count();
             }
         }
     }
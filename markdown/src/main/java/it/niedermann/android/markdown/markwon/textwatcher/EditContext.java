@@ -0,0 +1,88 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.getListItemIfIsEmpty;
+import static it.niedermann.android.markdown.MarkdownUtil.getOrderedListNumber;
+import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.lineStartsWithCheckbox;
+import static it.niedermann.android.markdown.MarkdownUtil.lineStartsWithList;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import it.niedermann.android.markdown.LineStartIndex;
+import it.niedermann.android.markdown.model.EListType;
+
+/**
+ * Describes one change of the text. It is computed once per change by the {@link TextWatcherPipeline} and shared by
+ * all its {@link EditStage}s, so none of them needs to look at or copy the whole text.
+ *
+ * @param start     offset at which the text has been changed
+ * @param before    number of characters which have been replaced
+ * @param count     number of characters which have been inserted
+ * @param removed   the replaced characters
+ * @param inserted  the inserted characters
+ * @param lineStart start of the line containing {@param start} after the change
+ * @param lineEnd   end of the line containing {@param start} after the change, exclusive
+ * @param line      the line containing {@param start} after the change
+ * @param lineType  the kind of markdown block the {@param line} belongs to
+ */
+public record EditContext(int start,
+                          int before,
+                          int count,
+                          @NonNull String removed,
+                          @NonNull String inserted,
+                          int lineStart,
+                          int lineEnd,
+                          @NonNull String line,
+                          @NonNull LineType lineType) {
+
+    public enum LineType {
+        TEXT,
+        LIST_ITEM,
+        CHECKBOX_ITEM,
+        ORDERED_LIST_ITEM
+    }
+
+    @NonNull
+    static EditContext of(@NonNull CharSequence s, int start, int before, int count, @NonNull String removed, @Nullable LineStartIndex index) {
+        final int lineStart = getStartOfLine(s, start, index);
+        final int lineEnd = getEndOfLine(s, start, index);
+        final var line = s.subSequence(lineStart, lineEnd).toString();
+        return new EditContext(start, before, count, removed, s.subSequence(start, start + count).toString(), lineStart, lineEnd, line, getLineType(line));
+    }
+
+    @NonNull
+    private static LineType getLineType(@NonNull String line) {
+        final var trimmedLine = line.trim();
+        if (lineStartsWithCheckbox(trimmedLine)) {
+            return LineType.CHECKBOX_ITEM;
+        }
+        if (lineStartsWithList(trimmedLine).isPresent()) {
+            return LineType.LIST_ITEM;
+        }
+        for (final var listType : EListType.values()) {
+            if (listType.listSymbol.equals(trimmedLine)) {
+                return LineType.LIST_ITEM;
+            }
+        }
+        if (getOrderedListNumber(trimmedLine).isPresent() || getListItemIfIsEmpty(line).isPresent()) {
+            return LineType.ORDERED_LIST_ITEM;
+        }
+        return LineType.TEXT;
+    }
+
+    /**
+     * @return whether the text got longer and the last inserted character is a line break, e.g. because <kbd>Enter</kbd> has been pressed
+     */
+    public boolean isLineBreakAppended() {
+        return count > before && inserted.endsWith("\n");
+    }
+
+    /**
+     * @return whether a single character has been removed, e.g. because <kbd>Backspace</kbd> has been pressed
+     */
+    public boolean isSingleCharacterRemoved() {
+        return count == 0 && before == 1;
+    }
+}
@@ -0,0 +1,265 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.text.Editable;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Undo and redo history of a text.
+ * <p>
+ * Instead of snapshots of the text only the changes are stored. The removed and inserted characters of all changes are
+ * appended to one buffer, like the add buffer of a piece table, and each change only refers to its pieces of this
+ * buffer. Consecutive typing is grouped into one transaction, which gets undone as a whole. When the history exceeds
+ * its maximum size, the oldest transactions get dropped.
+ */
+public class EditHistory {
+
+    /**
+     * Default maximum size in characters
+     */
+    public static final int DEFAULT_MAX_SIZE = 1_000_000;
+    private static final long TRANSACTION_TIMEOUT_MILLIS = 1_000;
+    private static final int MAX_TYPING_LENGTH = 32;
+    /**
+     * Approximated memory of the bookkeeping of one change, measured in characters
+     */
+    private static final int EDIT_OVERHEAD = 16;
+    private static final int MIN_GARBAGE_FOR_COMPACTION = 1_024;
+
+    @NonNull
+    private StringBuilder buffer = new StringBuilder();
+    @NonNull
+    private final Deque<Transaction> undoStack = new ArrayDeque<>();
+    @NonNull
+    private final Deque<Transaction> redoStack = new ArrayDeque<>();
+    private int maxSize;
+    /**
+     * Sum of the sizes of all transactions
+     */
+    private int size = 0;
+    /**
+     * Whether the latest transaction must not be continued by further typing
+     */
+    private boolean sealed = true;
+    private long lastEditMillis = 0;
+
+    public EditHistory() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of characters kept in the history
+     */
+    public EditHistory(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trim();
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        buffer = new StringBuilder();
+        size = 0;
+        sealed = true;
+    }
+
+    /**
+     * Records the {@param edits} which have been caused by one change of the text. Typing continues the latest
+     * transaction if it is adjacent to it and not more than {@link #TRANSACTION_TIMEOUT_MILLIS} have passed since.
+     */
+    public void record(@NonNull Collection<EditContext> edits, long uptimeMillis) {
+        if (edits.isEmpty()) {
+            return;
+        }
+        final boolean discardedRedo = !redoStack.isEmpty();
+        for (final var transaction : redoStack) {
+            size -= transaction.size;
+        }
+        redoStack.clear();
+
+        final var first = edits.iterator().next();
+        final boolean typing = edits.size() == 1 && isTyping(first);
+        var transaction = undoStack.peekLast();
+        if (transaction == null
+                || !typing
+                || sealed
+                || uptimeMillis - lastEditMillis > TRANSACTION_TIMEOUT_MILLIS
+                || !continues(transaction.edits.get(transaction.edits.size() - 1), first)) {
+            transaction = new Transaction();
+            undoStack.addLast(transaction);
+        }
+        for (final var edit : edits) {
+            append(transaction, edit);
+        }
+        sealed = !typing;
+        lastEditMillis = uptimeMillis;
+        trim();
+        if (discardedRedo) {
+            compact();
+        }
+    }
+
+    /**
+     * Reverts the latest transaction with minimal changes of the {@param text}.
+     *
+     * @return the position of the cursor after the reverted changes or <code>-1</code> if there is nothing to undo
+     */
+    public int undo(@NonNull Editable text) {
+        final var transaction = undoStack.pollLast();
+        if (transaction == null) {
+            return -1;
+        }
+        redoStack.addLast(transaction);
+        sealed = true;
+        int cursor = -1;
+        for (int i = transaction.edits.size() - 1; i >= 0; i--) {
+            final var edit = transaction.edits.get(i);
+            text.replace(edit.offset(), edit.offset() + edit.insertedLength(), buffer, edit.removedStart(), edit.removedStart() + edit.removedLength());
+            cursor = edit.offset() + edit.removedLength();
+        }
+        return cursor;
+    }
+
+    /**
+     * Applies the latest undone transaction again with minimal changes of the {@param text}.
+     *
+     * @return the position of the cursor after the applied changes or <code>-1</code> if there is nothing to redo
+     */
+    public int redo(@NonNull Editable text) {
+        final var transaction = redoStack.pollLast();
+        if (transaction == null) {
+            return -1;
+        }
+        undoStack.addLast(transaction);
+        sealed = true;
+        int cursor = -1;
+        for (final var edit : transaction.edits) {
+            text.replace(edit.offset(), edit.offset() + edit.removedLength(), buffer, edit.insertedStart(), edit.insertedStart() + edit.insertedLength());
+            cursor = edit.offset() + edit.insertedLength();
+        }
+        return cursor;
+    }
+
+    /**
+     * @return whether the {@param edit} is typical for typing, including the replacement of a composed word by an input method
+     */
+    private static boolean isTyping(@NonNull EditContext edit) {
+        return edit.before() <= MAX_TYPING_LENGTH
+                && edit.count() <= MAX_TYPING_LENGTH
+                && edit.removed().indexOf('\n') < 0
+                && edit.inserted().indexOf('\n') < 0;
+    }
+
+    /**
+     * @return whether the {@param edit} starts within or right at the end of the {@param previous} one, or ends right at its start
+     */
+    private static boolean continues(@NonNull Edit previous, @NonNull EditContext edit) {
+        return (edit.start() >= previous.offset() && edit.start() <= previous.offset() + previous.insertedLength())
+                || edit.start() + edit.before() == previous.offset();
+    }
+
+    private void append(@NonNull Transaction transaction, @NonNull EditContext edit) {
+        final int last = transaction.edits.size() - 1;
+        if (last >= 0) {
+            final var previous = transaction.edits.get(last);
+            if (edit.before() == 0
+                    && previous.removedLength() == 0
+                    && edit.start() == previous.offset() + previous.insertedLength()
+                    && previous.insertedStart() + previous.insertedLength() == buffer.length()) {
+                // Extend the inserted piece of the previous change
+                buffer.append(edit.inserted());
+                transaction.edits.set(last, new Edit(previous.offset(), previous.removedStart(), 0, previous.insertedStart(), previous.insertedLength() + edit.count()));
+                transaction.size += edit.count();
+                size += edit.count();
+                return;
+            }
+        }
+        final int removedStart = buffer.length();
+        buffer.append(edit.removed());
+        final int insertedStart = buffer.length();
+        buffer.append(edit.inserted());
+        transaction.edits.add(new Edit(edit.start(), removedStart, edit.before(), insertedStart, edit.count()));
+        final int editSize = edit.before() + edit.count() + EDIT_OVERHEAD;
+        transaction.size += editSize;
+        size += editSize;
+    }
+
+    /**
+     * Drops the oldest transactions until the history fits into its maximum size
+     */
+    private void trim() {
+        boolean dropped = false;
+        while (size > maxSize && (!undoStack.isEmpty() || !redoStack.isEmpty())) {
+            final var transaction = undoStack.isEmpty() ? redoStack.pollFirst() : undoStack.pollFirst();
+            size -= transaction.size;
+            dropped = true;
+        }
+        if (undoStack.isEmpty()) {
+            sealed = true;
+        }
+        if (dropped) {
+            compact();
+        }
+    }
+
+    /**
+     * Removes the pieces of dropped transactions from the {@link #buffer} once they make up the bigger part of it
+     */
+    private void compact() {
+        int liveLength = 0;
+        for (final var stack : List.of(undoStack, redoStack)) {
+            for (final var transaction : stack) {
+                for (final var edit : transaction.edits) {
+                    liveLength += edit.removedLength() + edit.insertedLength();
+                }
+            }
+        }
+        if (buffer.length() - liveLength < Math.max(liveLength, MIN_GARBAGE_FOR_COMPACTION)) {
+            return;
+        }
+        final var compacted = new StringBuilder(liveLength);
+        for (final var stack : List.of(undoStack, redoStack)) {
+            for (final var transaction : stack) {
+                for (int i = 0; i < transaction.edits.size(); i++) {
+                    final var edit = transaction.edits.get(i);
+                    final int removedStart = compacted.length();
+                    compacted.append(buffer, edit.removedStart(), edit.removedStart() + edit.removedLength());
+                    final int insertedStart = compacted.length();
+                    compacted.append(buffer, edit.insertedStart(), edit.insertedStart() + edit.insertedLength());
+                    transaction.edits.set(i, new Edit(edit.offset(), removedStart, edit.removedLength(), insertedStart, edit.insertedLength()));
+                }
+            }
+        }
+        buffer = compacted;
+    }
+
+    /**
+     * Replacement of the characters at {@param offset}, both referring to pieces of the {@link #buffer}
+     */
+    private record Edit(int offset, int removedStart, int removedLength, int insertedStart, int insertedLength) {
+    }
+
+    private static class Transaction {
+        @NonNull
+        final List<Edit> edits = new ArrayList<>(1);
+        int size = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.text.Editable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * One stage of the {@link TextWatcherPipeline}, which reacts on changes of the text.
+ */
+@FunctionalInterface
+public interface EditStage {
+
+    /**
+     * Called for each change before {@link #afterTextChanged(Editable, EditContext)} gets called for any stage.
+     */
+    default void onTextChanged(@NonNull EditContext context) {
+        // Nothing to do by default
+    }
+
+    /**
+     * @return whether this stage has modified the {@param editable} in reaction to the change described by the
+     * {@param context}. The modification passes the whole pipeline as a change of its own, so the following stages
+     * are skipped for the original change.
+     */
+    boolean afterTextChanged(@NonNull Editable editable, @NonNull EditContext context);
+}
@@ -0,0 +1,438 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import io.noties.markwon.core.spans.CodeBlockSpan;
+import io.noties.markwon.editor.MarkwonEditor;
+import it.niedermann.android.markdown.LineStartIndex;
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
+import it.niedermann.android.markdown.markwon.ViewportWindow;
+
+/**
+ * Applies the spans of the {@link MarkwonEditor} in the background, like
+ * {@link io.noties.markwon.editor.MarkwonEditorTextWatcher#withPreRender}, but only re-parses the top level blocks
+ * which contain the changed range.
+ * <p>
+ * Blocks are delimited by blank lines. Fenced code blocks may contain blank lines, so they are always re-parsed as a
+ * whole, just like indented blocks which continue a list item after blank lines. A change of a fence can change the
+ * meaning of everything below it and reference links can be defined in any other block, so the whole text gets
+ * re-parsed in those cases. Whether the text contains link reference definitions is tracked along with the changes, so
+ * the whole text only needs to be scanned again when a change touches one.
+ * <p>
+ * Texts longer than the {@link #setLargeDocumentThreshold(int) large document threshold} are only styled within a
+ * window which covers the visible viewport plus one viewport height above and below. The window follows the viewport
+ * on {@link #onViewportChanged()} and spans outside of it get removed. Fenced code blocks which start above the window
+ * might therefore be styled like markdown.
+ */
+public class IncrementalEditorTextWatcher implements EditStage {
+
+    /**
+     * Default number of characters from which on only the window around the viewport gets styled
+     */
+    public static final int DEFAULT_LARGE_DOCUMENT_THRESHOLD = 300_000;
+    /**
+     * Length of the window in case the viewport is not known yet
+     */
+    private static final int DEFAULT_WINDOW_LENGTH = 10_000;
+
+    @NonNull
+    private final MarkwonEditor editor;
+    @NonNull
+    private final MarkwonMarkdownEditor editText;
+    @NonNull
+    private final ExecutorService executor = new ThreadPoolExecutor(0, 1, 10, SECONDS, new LinkedBlockingQueue<>());
+    @Nullable
+    private Future<?> pending;
+    private int generation = 0;
+
+    /**
+     * Range which has been changed since the last applied result
+     */
+    @NonNull
+    private final TextRange changed = new TextRange();
+
+    /**
+     * Whether the text contains link reference definitions, <code>null</code> if the whole text needs to be scanned
+     */
+    @Nullable
+    private Boolean linkReferenceDefinitions = null;
+
+    private int largeDocumentThreshold = DEFAULT_LARGE_DOCUMENT_THRESHOLD;
+    private boolean largeDocument = false;
+    /**
+     * Range of the text which is styled in case of a {@link #largeDocument}
+     */
+    @NonNull
+    private final TextRange window = new TextRange(0, 0);
+    /**
+     * Types of spans which have been created by the {@link MarkwonEditor}
+     */
+    @NonNull
+    private final Set<Class<?>> editorSpanTypes = new HashSet<>();
+    @NonNull
+    private final ViewportWindow viewport = new ViewportWindow();
+
+    public IncrementalEditorTextWatcher(@NonNull MarkwonEditor editor, @NonNull MarkwonMarkdownEditor editText) {
+        this.editor = editor;
+        this.editText = editText;
+    }
+
+    /**
+     * @param threshold number of characters from which on only the window around the viewport gets styled
+     */
+    public void setLargeDocumentThreshold(int threshold) {
+        this.largeDocumentThreshold = threshold;
+    }
+
+    /**
+     * Must be called whenever the visible part of the {@link MarkwonMarkdownEditor} changes, e. g. when it gets scrolled.
+     * Styles the blocks around the new viewport in case of a large document and it is not yet covered by the window.
+     */
+    public void onViewportChanged() {
+        final var text = editText.getText();
+        if (text == null || !largeDocument || !moveWindow(text.length(), false)) {
+            return;
+        }
+        submit(text, expandToBlocks(text, window.start(), window.end(), editText.getLineStartIndex()), null);
+    }
+
+    @Override
+    public void onTextChanged(@NonNull EditContext context) {
+        generation++;
+        window.adjust(context);
+        changed.include(context);
+        if (Boolean.TRUE.equals(linkReferenceDefinitions) && containsAny(context.removed(), "[]:")) {
+            // A definition might have been broken up
+            linkReferenceDefinitions = null;
+        }
+    }
+
+    @Override
+    public boolean afterTextChanged(@NonNull Editable editable, @NonNull EditContext context) {
+        if (changed.isEmpty()) {
+            return false;
+        }
+        final int length = editable.length();
+        final var index = editText.getLineStartIndex();
+        final boolean wasLargeDocument = largeDocument;
+        largeDocument = length > largeDocumentThreshold;
+
+        final int changeStart = Math.min(changed.start(), length);
+        final int changeEnd = Math.min(changed.end(), length);
+        final boolean definitions = updateLinkReferenceDefinitions(editable, getStartOfLine(editable, changeStart, index), getEndOfLine(editable, changeEnd, index));
+        var region = findRegion(editable, changeStart, changeEnd, definitions, index);
+        if (largeDocument) {
+            // Pasted text might have stretched the window
+            moveWindow(length, true);
+            final var blocks = expandToBlocks(editable, window.start(), window.end(), index);
+            if (region.start() > blocks.end() || region.end() < blocks.start()) {
+                // Will be styled when it gets scrolled into the window
+                changed.clear();
+                return false;
+            }
+            if (region.end() - region.start() > blocks.end() - blocks.start()) {
+                region = blocks;
+            }
+        } else if (wasLargeDocument) {
+            region = new Region(0, length);
+        }
+
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = submit(editable, region, changed::clear);
+        return false;
+    }
+
+    /**
+     * Updates whether the {@param text} contains link reference definitions after the lines from
+     * {@param changedLinesStart} to {@param changedLinesEnd} have been changed. The whole {@param text} is only scanned
+     * in case a known definition might have been broken up by the change.
+     *
+     * @return whether the {@param text} contains link reference definitions
+     */
+    @VisibleForTesting
+    boolean updateLinkReferenceDefinitions(@NonNull CharSequence text, int changedLinesStart, int changedLinesEnd) {
+        if (linkReferenceDefinitions == null) {
+            linkReferenceDefinitions = containsLinkReferenceDefinition(text, 0, text.length());
+        } else if (linkReferenceDefinitions) {
+            if (containsAny(text.subSequence(changedLinesStart, changedLinesEnd), "]")) {
+                linkReferenceDefinitions = containsLinkReferenceDefinition(text, 0, text.length());
+            }
+        } else {
+            linkReferenceDefinitions = containsLinkReferenceDefinition(text, changedLinesStart, changedLinesEnd);
+        }
+        return linkReferenceDefinitions;
+    }
+
+    /**
+     * Processes the {@param region} of the {@param editable} in the background and applies the result if the text has
+     * not been changed in the meantime.
+     *
+     * @param onApplied called on the main thread after the result has been applied
+     */
+    @NonNull
+    private Future<?> submit(@NonNull Editable editable, @NonNull Region region, @Nullable Runnable onApplied) {
+        final var input = new SpannableStringBuilder(editable, region.start(), region.end());
+        final int generation = this.generation;
+        return executor.submit(() -> {
+            final var previousRanges = getRanges(input);
+            editor.process(input);
+            editText.post(() -> {
+                final var text = editText.getText();
+                if (generation == this.generation && text != null) {
+                    apply(text, region.start(), input, previousRanges);
+                    if (largeDocument) {
+                        removeSpansOutsideOfWindow(text);
+                    }
+                    if (onApplied != null) {
+                        onApplied.run();
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Moves the window to the current viewport.
+     *
+     * @return whether the window has been moved
+     */
+    private boolean moveWindow(int length, boolean force) {
+        if (!viewport.measure(editText)) {
+            if (!force) {
+                return false;
+            }
+            window.set(0, Math.min(DEFAULT_WINDOW_LENGTH, length));
+            return true;
+        }
+        if (!force && viewport.isVisibleWithin(window.start(), window.end())) {
+            return false;
+        }
+        window.set(Math.min(viewport.start(), length), Math.min(viewport.end(), length));
+        return true;
+    }
+
+    private void removeSpansOutsideOfWindow(@NonNull Editable editable) {
+        final var blocks = expandToBlocks(editable, Math.min(window.start(), editable.length()), Math.min(window.end(), editable.length()), editText.getLineStartIndex());
+        for (final var type : editorSpanTypes) {
+            for (final var span : editable.getSpans(0, blocks.start(), type)) {
+                if (editable.getSpanEnd(span) <= blocks.start()) {
+                    editable.removeSpan(span);
+                }
+            }
+            for (final var span : editable.getSpans(blocks.end(), editable.length(), type)) {
+                if (editable.getSpanStart(span) >= blocks.end()) {
+                    editable.removeSpan(span);
+                }
+            }
+        }
+    }
+
+    /**
+     * Transfers the changes the {@link MarkwonEditor} made to the spans of the {@param processed} region to the
+     * {@param editable}. Spans which have not been touched are left alone, so spans which have been clipped when
+     * copying the region do not get clipped in the {@param editable}.
+     */
+    @VisibleForTesting
+    void apply(@NonNull Editable editable, int offset, @NonNull Spanned processed, @NonNull Map<Object, SpanRange> previousRanges) {
+        final var processedRanges = getRanges(processed);
+        for (final var span : previousRanges.keySet()) {
+            if (!processedRanges.containsKey(span)) {
+                editable.removeSpan(span);
+            }
+        }
+        for (final var entry : processedRanges.entrySet()) {
+            final var range = entry.getValue();
+            final var previousRange = previousRanges.get(entry.getKey());
+            if (previousRange == null) {
+                editorSpanTypes.add(entry.getKey().getClass());
+            }
+            if (!range.equals(previousRange)) {
+                editable.setSpan(entry.getKey(), offset + range.start(), offset + range.end(), range.flags());
+            }
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static Map<Object, SpanRange> getRanges(@NonNull Spanned spanned) {
+        final var spans = spanned.getSpans(0, spanned.length(), Object.class);
+        final var ranges = new IdentityHashMap<Object, SpanRange>(spans.length);
+        for (final var span : spans) {
+            ranges.put(span, new SpanRange(spanned.getSpanStart(span), spanned.getSpanEnd(span), spanned.getSpanFlags(span)));
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the range of the top level blocks which contain the changed range from {@param changeStart} to
+     * {@param changeEnd}, including a trailing line break, or the whole {@param text} in case a fence has been changed
+     * or the {@param text} contains {@param linkReferenceDefinitions}
+     */
+    @VisibleForTesting
+    @NonNull
+    static Region findRegion(@NonNull Spanned text, int changeStart, int changeEnd, boolean linkReferenceDefinitions, @Nullable LineStartIndex index) {
+        final int length = text.length();
+        if (linkReferenceDefinitions) {
+            return new Region(0, length);
+        }
+        final int changedLinesStart = getStartOfLine(text, changeStart, index);
+        final int changedLinesEnd = getEndOfLine(text, changeEnd, index);
+        final var blocks = expandToBlocks(text, changeStart, changeEnd, index);
+        final int start = blocks.start();
+        final int end = blocks.end() == length ? length : blocks.end() - 1;
+
+        int fences = 0;
+        for (int lineStart = start; lineStart <= end; ) {
+            final int lineEnd = getEndOfLine(text, lineStart, index);
+            if (isFence(text, lineStart, lineEnd)) {
+                if (lineStart <= changedLinesEnd && lineEnd >= changedLinesStart) {
+                    return new Region(0, length);
+                }
+                fences++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (fences % 2 != 0) {
+            // An unclosed fence continues until the end of the text
+            return new Region(0, length);
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the range of the top level blocks which contain the range from {@param from} to {@param to}, including a
+     * trailing line break. Indented blocks after blank lines are considered to be part of the block above them.
+     */
+    @NonNull
+    private static Region expandToBlocks(@NonNull Spanned text, int from, int to, @Nullable LineStartIndex index) {
+        final int length = text.length();
+        int start = getStartOfLine(text, from, index);
+        int end = getEndOfLine(text, to, index);
+        for (final var span : text.getSpans(from, to, CodeBlockSpan.class)) {
+            start = Math.min(start, getStartOfLine(text, text.getSpanStart(span), index));
+            end = Math.max(end, getEndOfLine(text, text.getSpanEnd(span), index));
+        }
+
+        boolean skippingBlankLines = false;
+        while (start > 0) {
+            final int previousLineStart = getStartOfLine(text, start - 1, index);
+            if (isBlank(text, previousLineStart, start - 1)) {
+                if (!skippingBlankLines && !isIndented(text, start, getEndOfLine(text, start, index))) {
+                    break;
+                }
+                skippingBlankLines = true;
+            } else {
+                skippingBlankLines = false;
+            }
+            start = previousLineStart;
+        }
+        while (end < length) {
+            int nextLineEnd = getEndOfLine(text, end + 1, index);
+            if (isBlank(text, end + 1, nextLineEnd)) {
+                while (nextLineEnd < length && isBlank(text, nextLineEnd + 1, getEndOfLine(text, nextLineEnd + 1, index))) {
+                    nextLineEnd = getEndOfLine(text, nextLineEnd + 1, index);
+                }
+                if (nextLineEnd >= length || !isIndented(text, nextLineEnd + 1, getEndOfLine(text, nextLineEnd + 1, index))) {
+                    break;
+                }
+                nextLineEnd = getEndOfLine(text, nextLineEnd + 1, index);
+            }
+            end = nextLineEnd;
+        }
+        return new Region(start, Math.min(end + 1, length));
+    }
+
+    private static boolean isBlank(@NonNull CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the line from {@param start} to {@param end} is not blank and starts with whitespace
+     */
+    private static boolean isIndented(@NonNull CharSequence text, int start, int end) {
+        return start < end && (text.charAt(start) == ' ' || text.charAt(start) == '\t') && !isBlank(text, start, end);
+    }
+
+    private static boolean containsAny(@NonNull CharSequence text, @NonNull String chars) {
+        for (int i = 0; i < text.length(); i++) {
+            if (chars.indexOf(text.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether any line from {@param start} to {@param end} of the {@param text} looks like the definition of a
+     * reference link, e. g. <code>[foo]: https://example.com</code>
+     */
+    @VisibleForTesting
+    static boolean containsLinkReferenceDefinition(@NonNull CharSequence text, int start, int end) {
+        final int length = Math.min(end, text.length());
+        int lineStart = start;
+        while (lineStart < length) {
+            int i = lineStart;
+            while (i < length && i - lineStart < 3 && text.charAt(i) == ' ') {
+                i++;
+            }
+            boolean definition = i < length && text.charAt(i) == '[';
+            while (i < length && text.charAt(i) != '\n') {
+                if (definition && text.charAt(i) == ']') {
+                    if (i + 1 < length && text.charAt(i + 1) == ':') {
+                        return true;
+                    }
+                    definition = false;
+                }
+                i++;
+            }
+            lineStart = i + 1;
+        }
+        return false;
+    }
+
+    private static boolean isFence(@NonNull CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && text.charAt(i) == ' ') {
+            i++;
+        }
+        if (i + 3 > end) {
+            return false;
+        }
+        final char c = text.charAt(i);
+        return (c == '`' || c == '~') && text.charAt(i + 1) == c && text.charAt(i + 2) == c;
+    }
+
+    @VisibleForTesting
+    record Region(int start, int end) {
+    }
+
+    @VisibleForTesting
+    record SpanRange(int start, int end, int flags) {
+    }
+}
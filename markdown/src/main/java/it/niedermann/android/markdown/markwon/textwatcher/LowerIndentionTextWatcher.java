@@ -1,10 +1,6 @@
 package it.niedermann.android.markdown.markwon.textwatcher;
 
-import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
-import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
-
 import android.text.Editable;
-import android.text.TextWatcher;
 
 import androidx.annotation.NonNull;
 
@@ -14,53 +10,43 @@ import it.niedermann.android.markdown.model.EListType;
 /**
  * Automatically lowers indention when pressing <kbd>Backspace</kbd> on lists and check lists
  */
-public class LowerIndentionTextWatcher extends InterceptorTextWatcher {
+public class LowerIndentionTextWatcher implements EditStage {
 
     @NonNull
     private final MarkwonMarkdownEditor editText;
 
     private boolean backspacePressed = false;
-    private int cursor = 0;
 
-    public LowerIndentionTextWatcher(@NonNull TextWatcher originalWatcher, @NonNull MarkwonMarkdownEditor editText) {
-        super(originalWatcher);
+    public LowerIndentionTextWatcher(@NonNull MarkwonMarkdownEditor editText) {
         this.editText = editText;
     }
 
     @Override
-    public void onTextChanged(CharSequence s, int start, int before, int count) {
-        if (count == 0 && before == 1) {
-            if (editText.getSelectionStart() == editText.getSelectionEnd()) {
-                backspacePressed = true;
-                cursor = start;
-            }
-        }
-        originalWatcher.onTextChanged(s, start, before, count);
+    public void onTextChanged(@NonNull EditContext context) {
+        backspacePressed = context.isSingleCharacterRemoved()
+                && context.lineType() != EditContext.LineType.TEXT
+                && editText.getSelectionStart() == editText.getSelectionEnd();
     }
 
     @Override
-    public void afterTextChanged(Editable editable) {
+    public boolean afterTextChanged(@NonNull Editable editable, @NonNull EditContext context) {
         if (backspacePressed) {
-            if (!handleBackspace(editable, cursor)) {
-                originalWatcher.afterTextChanged(editable);
-            }
             backspacePressed = false;
-        } else {
-            originalWatcher.afterTextChanged(editable);
+            return handleBackspace(editable, context);
         }
-        editText.setMarkdownStringModel(editable);
+        return false;
     }
 
-    private boolean handleBackspace(@NonNull Editable editable, int cursor) {
-        final int lineStart = getStartOfLine(editable, cursor);
-        final int lineEnd = getEndOfLine(editable, cursor);
+    private boolean handleBackspace(@NonNull Editable editable, @NonNull EditContext context) {
+        final int lineStart = context.lineStart();
+        final int lineEnd = context.lineEnd();
 
         // The cursor must be at the end of the line to automatically continue
-        if (cursor != lineEnd) {
+        if (context.start() != lineEnd) {
             return false;
         }
 
-        final String line = editable.subSequence(lineStart, lineEnd).toString();
+        final String line = context.line();
         final String trimmedLine = line.trim();
 
         // There must be no content in this list item to automatically continue
@@ -1,8 +1,11 @@
 package it.niedermann.android.markdown.markwon.textwatcher;
 
+import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
+
 import android.text.Editable;
+import android.text.Spannable;
 import android.text.TextUtils;
-import android.text.TextWatcher;
 import android.util.TypedValue;
 
 import androidx.annotation.ColorInt;
@@ -11,20 +14,43 @@ import androidx.annotation.Nullable;
 
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
+import it.niedermann.android.markdown.markwon.ViewportWindow;
 import it.niedermann.android.markdown.model.SearchSpan;
+import it.niedermann.android.markdown.search.CompiledSearch;
 
-public class SearchHighlightTextWatcher extends InterceptorTextWatcher {
+/**
+ * Highlights the current search text in the {@link MarkwonMarkdownEditor}.
+ * <p>
+ * {@link SearchSpan}s are only created within a window which covers the visible viewport plus one viewport height above
+ * and below. On text changes only the affected lines get highlighted again.
+ */
+public class SearchHighlightTextWatcher implements EditStage {
 
     private final MarkwonMarkdownEditor editText;
     @Nullable
-    private CharSequence searchText;
+    private CompiledSearch search;
     @Nullable
     private Integer current;
     @ColorInt
     private int color;
 
-    public SearchHighlightTextWatcher(@NonNull TextWatcher originalWatcher, @NonNull MarkwonMarkdownEditor editText) {
-        super(originalWatcher);
+    /**
+     * Range of the text in which {@link SearchSpan}s are applied
+     */
+    private final TextRange window = new TextRange(0, 0);
+    /**
+     * Number of matches before the {@link #window}, <code>-1</code> if unknown
+     */
+    private int matchesBeforeWindow = -1;
+
+    /**
+     * Range which has been changed since the last {@link #afterTextChanged(Editable, EditContext)}
+     */
+    private final TextRange changed = new TextRange();
+
+    private final ViewportWindow viewport = new ViewportWindow();
+
+    public SearchHighlightTextWatcher(@NonNull MarkwonMarkdownEditor editText) {
         this.editText = editText;
         final var context = editText.getContext();
         final var typedValue = new TypedValue();
@@ -36,28 +62,111 @@ public class SearchHighlightTextWatcher extends InterceptorTextWatcher {
     public void setSearchText(@Nullable CharSequence searchText, @Nullable Integer current) {
         this.current = current;
         if (TextUtils.isEmpty(searchText)) {
-            this.searchText = null;
+            this.search = null;
             final var text = editText.getText();
             if (text != null) {
                 MarkdownUtil.removeSpans(text, SearchSpan.class);
             }
         } else {
-            this.searchText = searchText;
-            afterTextChanged(editText.getText());
+            this.search = CompiledSearch.compile(searchText);
+            highlightVisibleWindow(true);
         }
     }
 
     public void setSearchColor(@ColorInt int color) {
         this.color = color;
-        afterTextChanged(editText.getText());
+        highlightVisibleWindow(true);
+    }
+
+    /**
+     * Must be called whenever the visible part of the {@link MarkwonMarkdownEditor} changes, e. g. when it gets scrolled.
+     * Highlights the matches around the new viewport in case it is not yet covered by the current window.
+     */
+    public void onViewportChanged() {
+        highlightVisibleWindow(false);
+    }
+
+    @Override
+    public void onTextChanged(@NonNull EditContext context) {
+        if (search != null) {
+            if (window.adjust(context)) {
+                matchesBeforeWindow = -1;
+            }
+            changed.include(context);
+        }
     }
 
     @Override
-    public void afterTextChanged(Editable s) {
-        originalWatcher.afterTextChanged(s);
-        if (searchText != null) {
-            MarkdownUtil.removeSpans(s, SearchSpan.class);
-            MarkdownUtil.searchAndColor(editText.getContext(), s, searchText, color, current);
+    public boolean afterTextChanged(@NonNull Editable s, @NonNull EditContext context) {
+        if (search != null && !changed.isEmpty()) {
+            final int length = s.length();
+            window.set(Math.min(window.start(), length), Math.min(window.end(), length));
+
+            final int from = Math.max(getStartOfLine(s, Math.min(changed.start(), length), editText.getLineStartIndex()), window.start());
+            // The position of all following matches might have changed, so the current match needs to be colored again
+            final int to = current == null
+                    ? Math.min(getEndOfLine(s, Math.min(changed.end(), length), editText.getLineStartIndex()), window.end())
+                    : window.end();
+            highlight(s, from, to);
         }
+        changed.clear();
+        return false;
+    }
+
+    private void highlightVisibleWindow(boolean force) {
+        final var text = editText.getText();
+        if (text == null || search == null) {
+            return;
+        }
+
+        final int length = text.length();
+        final int newWindowStart;
+        final int newWindowEnd;
+        if (!viewport.measure(editText)) {
+            newWindowStart = 0;
+            newWindowEnd = length;
+        } else {
+            if (!force && viewport.isVisibleWithin(window.start(), window.end())) {
+                return;
+            }
+            newWindowStart = Math.min(viewport.start(), length);
+            newWindowEnd = Math.min(viewport.end(), length);
+        }
+
+        if (!force && newWindowStart == window.start() && newWindowEnd == window.end()) {
+            return;
+        }
+
+        MarkdownUtil.removeSpans(text, SearchSpan.class);
+        if (newWindowStart != window.start()) {
+            matchesBeforeWindow = -1;
+        }
+        window.set(newWindowStart, newWindowEnd);
+        highlight(text, window.start(), window.end());
+    }
+
+    /**
+     * Replaces all {@link SearchSpan}s from {@param from} to {@param to} with the current matches.
+     */
+    private void highlight(@NonNull Spannable s, int from, int to) {
+        if (search == null || from > to) {
+            return;
+        }
+
+        // Matches might reach beyond the given range
+        for (final var span : s.getSpans(from, to, SearchSpan.class)) {
+            from = Math.max(Math.min(from, s.getSpanStart(span)), window.start());
+            to = Math.min(Math.max(to, s.getSpanEnd(span)), window.end());
+            s.removeSpan(span);
+        }
+
+        if (matchesBeforeWindow < 0) {
+            matchesBeforeWindow = search.count(s, 0, window.start());
+        }
+        final int matchesBeforeRange = from > window.start()
+                ? s.getSpans(window.start(), from, SearchSpan.class).length
+                : 0;
+
+        MarkdownUtil.searchAndColor(editText.getContext(), s, search, color, current, from, to, matchesBeforeWindow + matchesBeforeRange + 1);
     }
 }
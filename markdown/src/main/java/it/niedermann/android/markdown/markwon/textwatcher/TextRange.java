@@ -0,0 +1,83 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Range of a text which follows the changes of the text, so {@link EditStage}s can keep track of a window of the text
+ * or of the range which has been changed since they last reacted on it.
+ */
+final class TextRange {
+
+    private int start;
+    private int end;
+
+    /**
+     * Creates an empty range
+     */
+    TextRange() {
+        clear();
+    }
+
+    TextRange(int start, int end) {
+        set(start, end);
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    boolean isEmpty() {
+        return start < 0;
+    }
+
+    void set(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    void clear() {
+        set(-1, -1);
+    }
+
+    /**
+     * Moves the bounds so they keep pointing to the same characters after the change described by the {@param context}.
+     * Replaced characters at the bounds are considered to be part of this range.
+     *
+     * @return whether the change happened before the start of this range
+     */
+    boolean adjust(@NonNull EditContext context) {
+        final int changeStart = context.start();
+        final int delta = context.count() - context.before();
+        if (changeStart <= end) {
+            end = changeStart + context.before() > end ? changeStart + context.count() : end + delta;
+        }
+        if (changeStart < start) {
+            start = changeStart + context.before() <= start ? start + delta : changeStart;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Extends this range so it covers the inserted characters of the change described by the {@param context}, or
+     * starts to cover them if it is {@link #isEmpty() empty}.
+     */
+    void include(@NonNull EditContext context) {
+        final int changeStart = context.start();
+        final int insertedEnd = changeStart + context.count();
+        if (isEmpty()) {
+            set(changeStart, insertedEnd);
+            return;
+        }
+        if (changeStart <= end) {
+            end = Math.max(changeStart + context.before() > end ? insertedEnd : end + context.count() - context.before(), insertedEnd);
+        } else {
+            end = insertedEnd;
+        }
+        start = Math.min(start, changeStart);
+    }
+}
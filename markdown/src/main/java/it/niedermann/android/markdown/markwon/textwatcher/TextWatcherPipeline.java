@@ -0,0 +1,178 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import io.noties.markwon.editor.MarkwonEditor;
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
+
+/**
+ * Passes each change of the text through a fixed sequence of {@link EditStage}s.
+ * <p>
+ * One immutable {@link EditContext} gets computed per change and is shared by all stages. Stages are asked one after
+ * the other to react on the change until one of them modifies the text, which makes the modification pass the
+ * pipeline on its own. Finally all changes are recorded in the {@link EditHistory}, the {@link MarkwonMarkdownEditor}
+ * gets notified about them in their order and its model gets updated once.
+ * <p>
+ * Changes caused by {@link #undo()} and {@link #redo()} are not passed to the stages which modify the text.
+ */
+public class TextWatcherPipeline implements TextWatcher {
+
+    @NonNull
+    private final MarkwonMarkdownEditor editText;
+    @NonNull
+    private final IncrementalEditorTextWatcher incrementalEditorStage;
+    @NonNull
+    private final SearchHighlightTextWatcher searchHighlightStage;
+    /**
+     * Stages which might modify the text
+     */
+    @NonNull
+    private final List<EditStage> editingStages;
+    /**
+     * Stages which only react on changes
+     */
+    @NonNull
+    private final List<EditStage> observingStages;
+    @NonNull
+    private final EditHistory history = new EditHistory();
+    @NonNull
+    private String removed = "";
+    @Nullable
+    private EditContext context;
+    /**
+     * Changes which have not yet been notified, including changes made by stages
+     */
+    @NonNull
+    private final Queue<EditContext> pendingEdits = new ArrayDeque<>();
+    private boolean applyingHistory = false;
+
+    public TextWatcherPipeline(@NonNull MarkwonEditor editor, @NonNull MarkwonMarkdownEditor editText) {
+        this.editText = editText;
+        this.incrementalEditorStage = new IncrementalEditorTextWatcher(editor, editText);
+        this.searchHighlightStage = new SearchHighlightTextWatcher(editText);
+        this.editingStages = List.of(
+                new LowerIndentionTextWatcher(editText),
+                new AutoContinuationTextWatcher(editText)
+        );
+        this.observingStages = List.of(
+                incrementalEditorStage,
+                searchHighlightStage
+        );
+    }
+
+    @NonNull
+    public SearchHighlightTextWatcher getSearchHighlightStage() {
+        return searchHighlightStage;
+    }
+
+    @NonNull
+    public IncrementalEditorTextWatcher getIncrementalEditorStage() {
+        return incrementalEditorStage;
+    }
+
+    /**
+     * Must be called whenever the visible part of the {@link MarkwonMarkdownEditor} changes, e. g. when it gets scrolled.
+     */
+    public void onViewportChanged() {
+        incrementalEditorStage.onViewportChanged();
+        searchHighlightStage.onViewportChanged();
+    }
+
+    @NonNull
+    public EditHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @return the position of the cursor after the reverted changes or <code>-1</code> if there is nothing to undo
+     */
+    public int undo() {
+        final var text = editText.getText();
+        if (text == null) {
+            return -1;
+        }
+        applyingHistory = true;
+        try {
+            return history.undo(text);
+        } finally {
+            applyingHistory = false;
+        }
+    }
+
+    /**
+     * @return the position of the cursor after the applied changes or <code>-1</code> if there is nothing to redo
+     */
+    public int redo() {
+        final var text = editText.getText();
+        if (text == null) {
+            return -1;
+        }
+        applyingHistory = true;
+        try {
+            return history.redo(text);
+        } finally {
+            applyingHistory = false;
+        }
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        removed = count == 0 ? "" : s.subSequence(start, start + count).toString();
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        final var context = EditContext.of(s, start, before, count, removed, editText.getLineStartIndex());
+        this.context = context;
+        removed = "";
+        pendingEdits.add(context);
+        if (!applyingHistory) {
+            for (final var stage : editingStages) {
+                stage.onTextChanged(context);
+            }
+        }
+        for (final var stage : observingStages) {
+            stage.onTextChanged(context);
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        final var context = this.context;
+        this.context = null;
+        if (context != null) {
+            if (!applyingHistory) {
+                for (final var stage : editingStages) {
+                    if (stage.afterTextChanged(s, context)) {
+                        // The modification already passed the whole pipeline and notified the editor
+                        return;
+                    }
+                }
+            }
+            for (final var stage : observingStages) {
+                stage.afterTextChanged(s, context);
+            }
+        }
+        notifyEditor(s);
+    }
+
+    private void notifyEditor(@NonNull Editable s) {
+        final var edits = new ArrayList<>(pendingEdits);
+        pendingEdits.clear();
+        if (!applyingHistory) {
+            history.record(edits, SystemClock.uptimeMillis());
+        }
+        editText.notifyMarkdownEdits(edits);
+        editText.setMarkdownStringModel(s);
+    }
+}
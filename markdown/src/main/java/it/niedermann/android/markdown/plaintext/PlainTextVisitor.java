@@ -0,0 +1,148 @@
+package it.niedermann.android.markdown.plaintext;
+
+import androidx.annotation.NonNull;
+import androidx.core.text.HtmlCompat;
+
+import org.commonmark.node.AbstractVisitor;
+import org.commonmark.node.Code;
+import org.commonmark.node.CustomBlock;
+import org.commonmark.node.FencedCodeBlock;
+import org.commonmark.node.HardLineBreak;
+import org.commonmark.node.Heading;
+import org.commonmark.node.HtmlBlock;
+import org.commonmark.node.HtmlInline;
+import org.commonmark.node.IndentedCodeBlock;
+import org.commonmark.node.Node;
+import org.commonmark.node.Paragraph;
+import org.commonmark.node.SoftLineBreak;
+import org.commonmark.node.Text;
+import org.commonmark.node.ThematicBreak;
+
+/**
+ * Writes the plain text of a commonmark {@link Node} tree directly into a {@link StringBuilder}.
+ * <p>
+ * Blocks are separated by a single line break, similar to {@link HtmlCompat#FROM_HTML_MODE_COMPACT}.
+ * The visitor stops as soon as {@code maxLength} characters have been written.
+ */
+public class PlainTextVisitor extends AbstractVisitor {
+
+    @NonNull
+    private final StringBuilder out;
+    private final int limit;
+
+    /**
+     * @param out       the {@link StringBuilder} which will receive the plain text
+     * @param maxLength the maximum number of characters to append to {@param out}
+     */
+    public PlainTextVisitor(@NonNull StringBuilder out, int maxLength) {
+        this.out = out;
+        this.limit = (int) Math.min((long) out.length() + Math.max(maxLength, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return whether the maximum number of characters has been written, which means that the output got truncated
+     */
+    public boolean isLimitReached() {
+        return out.length() >= limit;
+    }
+
+    @Override
+    public void visit(Paragraph paragraph) {
+        ensureNewLine();
+        visitChildren(paragraph);
+    }
+
+    @Override
+    public void visit(Heading heading) {
+        ensureNewLine();
+        visitChildren(heading);
+    }
+
+    @Override
+    public void visit(CustomBlock customBlock) {
+        ensureNewLine();
+        visitChildren(customBlock);
+    }
+
+    @Override
+    public void visit(FencedCodeBlock fencedCodeBlock) {
+        ensureNewLine();
+        appendTrimmedLiteral(fencedCodeBlock.getLiteral());
+    }
+
+    @Override
+    public void visit(IndentedCodeBlock indentedCodeBlock) {
+        ensureNewLine();
+        appendTrimmedLiteral(indentedCodeBlock.getLiteral());
+    }
+
+    @Override
+    public void visit(HtmlBlock htmlBlock) {
+        ensureNewLine();
+        // HTML blocks are rare, so we accept the costs of parsing them
+        append(HtmlCompat.fromHtml(htmlBlock.getLiteral(), HtmlCompat.FROM_HTML_MODE_COMPACT).toString().trim());
+    }
+
+    @Override
+    public void visit(HtmlInline htmlInline) {
+        // Tags do not contribute to the plain text
+    }
+
+    @Override
+    public void visit(ThematicBreak thematicBreak) {
+        // Not representable as plain text
+    }
+
+    @Override
+    public void visit(Text text) {
+        append(text.getLiteral());
+    }
+
+    @Override
+    public void visit(Code code) {
+        append(code.getLiteral());
+    }
+
+    @Override
+    public void visit(SoftLineBreak softLineBreak) {
+        append("\n");
+    }
+
+    @Override
+    public void visit(HardLineBreak hardLineBreak) {
+        append("\n");
+    }
+
+    @Override
+    protected void visitChildren(Node parent) {
+        var node = parent.getFirstChild();
+        while (node != null && !isLimitReached()) {
+            // A subclass of this visitor might modify the node, resulting in getNext returning a different node or no
+            // node after visiting it. So get the next node before visiting.
+            final var next = node.getNext();
+            node.accept(this);
+            node = next;
+        }
+    }
+
+    private void ensureNewLine() {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            append("\n");
+        }
+    }
+
+    private void appendTrimmedLiteral(@NonNull String literal) {
+        append(literal, literal.endsWith("\n") ? literal.length() - 1 : literal.length());
+    }
+
+    private void append(@NonNull String s) {
+        append(s, s.length());
+    }
+
+    private void append(@NonNull String s, int end) {
+        final int remaining = limit - out.length();
+        if (remaining > 0) {
+            out.append(s, 0, Math.min(end, remaining));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package it.niedermann.android.markdown.remoteviews;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.niedermann.android.markdown.MarkdownUtil;
+
+/**
+ * Memoizes the {@link RemoteViewElement}s extracted by {@link MarkdownUtil#getRenderedElementsForRemoteView(Context, String)}
+ * per key, e. g. an app widget or a note.
+ * <p>
+ * Each {@link #update(Context, long, String)} compares the new elements with the previous ones of the same key.
+ * Elements keep their id as long as they are at the same place in the list, so a {@link android.widget.RemoteViewsService.RemoteViewsFactory}
+ * can report stable ids and only needs to update the {@link Update#changed()} rows.
+ * <p>
+ * An instance should live as long as the widgets it serves, otherwise all elements will be reported as changed.
+ */
+public class RemoteViewElementsExtractor {
+
+    private final Map<Long, Snapshot> snapshots = new HashMap<>();
+
+    @NonNull
+    public synchronized Update update(@NonNull Context context, long key, @NonNull String content) {
+        final var previous = snapshots.get(key);
+        if (previous != null && previous.content.equals(content)) {
+            return new Update(previous.elements, Collections.emptyList(), Collections.emptyList());
+        }
+
+        final var extracted = MarkdownUtil.getRenderedElementsForRemoteView(context, content);
+        final var oldElements = previous == null ? Collections.<Element>emptyList() : previous.elements;
+        long nextId = previous == null ? 0 : previous.nextId;
+
+        final int oldSize = oldElements.size();
+        final int newSize = extracted.size();
+
+        // Elements at the beginning and at the end which did not change their content keep their ids
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && hasSameContent(oldElements.get(prefix).element, extracted.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && hasSameContent(oldElements.get(oldSize - 1 - suffix).element, extracted.get(newSize - 1 - suffix))) {
+            suffix++;
+        }
+
+        final var elements = new ArrayList<Element>(newSize);
+        final var changed = new ArrayList<Element>();
+        for (int i = 0; i < newSize; i++) {
+            final int oldIndex;
+            if (i < prefix) {
+                oldIndex = i;
+            } else if (i >= newSize - suffix) {
+                oldIndex = oldSize - newSize + i;
+            } else if (i < oldSize - suffix) {
+                // Changed elements in the middle reuse the ids of the elements they replace
+                oldIndex = i;
+            } else {
+                oldIndex = -1;
+            }
+            final var element = new Element(oldIndex < 0 ? nextId++ : oldElements.get(oldIndex).id, extracted.get(i));
+            elements.add(element);
+            if (oldIndex < 0 || !oldElements.get(oldIndex).equals(element)) {
+                changed.add(element);
+            }
+        }
+
+        final var removedIds = new ArrayList<Long>();
+        for (int i = newSize - suffix; i < oldSize - suffix; i++) {
+            removedIds.add(oldElements.get(i).id);
+        }
+
+        final var unmodifiableElements = Collections.unmodifiableList(elements);
+        snapshots.put(key, new Snapshot(content, unmodifiableElements, nextId));
+        return new Update(unmodifiableElements, Collections.unmodifiableList(changed), Collections.unmodifiableList(removedIds));
+    }
+
+    /**
+     * Forgets the previous elements of the given {@param key}, e. g. when the widget has been deleted.
+     */
+    public synchronized void remove(long key) {
+        snapshots.remove(key);
+    }
+
+    private static boolean hasSameContent(@NonNull RemoteViewElement a, @NonNull RemoteViewElement b) {
+        return a.type() == b.type() && a.currentLineBlock().equals(b.currentLineBlock());
+    }
+
+    /**
+     * @param id stable id of the element within the key it has been extracted for
+     */
+    public record Element(long id, @NonNull RemoteViewElement element) {
+    }
+
+    /**
+     * @param elements   all current elements in their order
+     * @param changed    elements which are new or whose line range or content changed
+     * @param removedIds ids of elements which no longer exist
+     */
+    public record Update(@NonNull List<Element> elements, @NonNull List<Element> changed, @NonNull List<Long> removedIds) {
+
+        public boolean hasChanges() {
+            return !changed.isEmpty() || !removedIds.isEmpty();
+        }
+    }
+
+    private record Snapshot(@NonNull String content, @NonNull List<Element> elements, long nextId) {
+    }
+}
@@ -0,0 +1,320 @@
+package it.niedermann.android.markdown.remoteviews;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
+import android.util.LruCache;
+import android.widget.RemoteViews;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.core.text.HtmlCompat;
+
+import org.commonmark.node.AbstractVisitor;
+import org.commonmark.node.BlockQuote;
+import org.commonmark.node.BulletList;
+import org.commonmark.node.Code;
+import org.commonmark.node.CustomBlock;
+import org.commonmark.node.Emphasis;
+import org.commonmark.node.FencedCodeBlock;
+import org.commonmark.node.HardLineBreak;
+import org.commonmark.node.Heading;
+import org.commonmark.node.HtmlBlock;
+import org.commonmark.node.HtmlInline;
+import org.commonmark.node.IndentedCodeBlock;
+import org.commonmark.node.Link;
+import org.commonmark.node.ListItem;
+import org.commonmark.node.Node;
+import org.commonmark.node.OrderedList;
+import org.commonmark.node.Paragraph;
+import org.commonmark.node.SoftLineBreak;
+import org.commonmark.node.StrongEmphasis;
+import org.commonmark.node.Text;
+import org.commonmark.node.ThematicBreak;
+import org.commonmark.parser.Parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.R;
+
+/**
+ * Renders markdown directly to a {@link Spanned} which only contains spans supported by {@link RemoteViews}.
+ * <p>
+ * Unordered list items are prefixed with <code>•</code>, ordered list items with their number, nested items are indented with tabs.
+ * Checkboxes are replaced by emojis, see {@link MarkdownUtil#replaceCheckboxesWithEmojis(String)}.
+ * <p>
+ * An instance is bound to the configuration (e. g. dark mode) of the {@link Context} it has been created with.
+ */
+public class RemoteViewsRenderer {
+
+    private static final Parser PARSER = Parser.builder().build();
+    private static final float[] HEADING_SIZES = {1.5f, 1.4f, 1.3f, 1.2f, 1.1f, 1f};
+    private static final String MONOSPACE = "monospace";
+    private static final String BULLET = "• ";
+    private static final String INDENTION = "\t\t";
+    private static final int QUOTE_STRIPE_WIDTH = 5;
+    private static final int QUOTE_GAP_WIDTH = 30;
+
+    @ColorInt
+    private final int colorBlockQuote;
+    @Nullable
+    private final LruCache<String, Spanned> cache;
+
+    public RemoteViewsRenderer(@NonNull Context context) {
+        this(context, 0);
+    }
+
+    /**
+     * @param cacheSize maximum number of characters of markdown sources and rendered results to keep in a LRU cache.
+     *                  Pass <code>0</code> to disable caching.
+     */
+    public RemoteViewsRenderer(@NonNull Context context, int cacheSize) {
+        this.colorBlockQuote = ContextCompat.getColor(context, R.color.block_quote);
+        this.cache = cacheSize > 0
+                ? new LruCache<>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Spanned value) {
+                return key.length() + value.length();
+            }
+        }
+                : null;
+    }
+
+    @NonNull
+    public Spanned render(@NonNull String markdown) {
+        if (cache != null) {
+            final var cached = cache.get(markdown);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final var builder = new SpannableStringBuilder();
+        PARSER.parse(MarkdownUtil.replaceCheckboxesWithEmojis(markdown)).accept(new SpannedVisitor(builder));
+        int end = builder.length();
+        while (end > 0 && builder.charAt(end - 1) == '\n') {
+            end--;
+        }
+        builder.delete(end, builder.length());
+        final var result = new SpannedString(builder);
+        if (cache != null) {
+            cache.put(markdown, result);
+        }
+        return result;
+    }
+
+    public void clearCache() {
+        if (cache != null) {
+            cache.evictAll();
+        }
+    }
+
+    private class SpannedVisitor extends AbstractVisitor {
+
+        @NonNull
+        private final SpannableStringBuilder builder;
+        /**
+         * Next number of each currently open list, an empty array for unordered lists
+         */
+        private final Deque<int[]> lists = new ArrayDeque<>();
+        private boolean atListItemStart = false;
+
+        private SpannedVisitor(@NonNull SpannableStringBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void visit(Paragraph paragraph) {
+            startBlock();
+            visitChildren(paragraph);
+        }
+
+        @Override
+        public void visit(Heading heading) {
+            startBlock();
+            final int start = builder.length();
+            visitChildren(heading);
+            final int level = Math.min(Math.max(heading.getLevel(), 1), HEADING_SIZES.length);
+            setSpan(new RelativeSizeSpan(HEADING_SIZES[level - 1]), start);
+            setSpan(new StyleSpan(Typeface.BOLD), start);
+        }
+
+        @Override
+        public void visit(BlockQuote blockQuote) {
+            startBlock();
+            final int start = builder.length();
+            visitChildren(blockQuote);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                setSpan(new QuoteSpan(colorBlockQuote, QUOTE_STRIPE_WIDTH, QUOTE_GAP_WIDTH), start);
+            } else {
+                setSpan(new QuoteSpan(colorBlockQuote), start);
+            }
+        }
+
+        @Override
+        public void visit(BulletList bulletList) {
+            visitList(bulletList, null);
+        }
+
+        @Override
+        public void visit(OrderedList orderedList) {
+            visitList(orderedList, new int[]{orderedList.getStartNumber()});
+        }
+
+        private void visitList(@NonNull Node list, @Nullable int[] number) {
+            if (lists.isEmpty()) {
+                startBlock();
+            }
+            // ArrayDeque does not permit null elements
+            lists.push(number == null ? new int[0] : number);
+            visitChildren(list);
+            lists.pop();
+        }
+
+        @Override
+        public void visit(ListItem listItem) {
+            ensureNewLine();
+            for (int nestingLevel = 1; nestingLevel < lists.size(); nestingLevel++) {
+                builder.append(INDENTION);
+            }
+            final var number = lists.peek();
+            if (number == null || number.length == 0) {
+                builder.append(BULLET);
+            } else {
+                builder.append(String.valueOf(number[0]++)).append(". ");
+            }
+            atListItemStart = true;
+            visitChildren(listItem);
+            atListItemStart = false;
+        }
+
+        @Override
+        public void visit(FencedCodeBlock fencedCodeBlock) {
+            visitCodeBlock(fencedCodeBlock.getLiteral());
+        }
+
+        @Override
+        public void visit(IndentedCodeBlock indentedCodeBlock) {
+            visitCodeBlock(indentedCodeBlock.getLiteral());
+        }
+
+        private void visitCodeBlock(@NonNull String literal) {
+            startBlock();
+            final int start = builder.length();
+            builder.append(literal, 0, literal.endsWith("\n") ? literal.length() - 1 : literal.length());
+            setSpan(new TypefaceSpan(MONOSPACE), start);
+        }
+
+        @Override
+        public void visit(HtmlBlock htmlBlock) {
+            startBlock();
+            // HTML blocks are rare, so we accept the costs of parsing them
+            builder.append(HtmlCompat.fromHtml(htmlBlock.getLiteral(), HtmlCompat.FROM_HTML_MODE_COMPACT));
+        }
+
+        @Override
+        public void visit(CustomBlock customBlock) {
+            startBlock();
+            visitChildren(customBlock);
+        }
+
+        @Override
+        public void visit(ThematicBreak thematicBreak) {
+            // Not representable with the available spans
+        }
+
+        @Override
+        public void visit(HtmlInline htmlInline) {
+            // Tags are not supported
+        }
+
+        @Override
+        public void visit(Emphasis emphasis) {
+            final int start = builder.length();
+            visitChildren(emphasis);
+            setSpan(new StyleSpan(Typeface.ITALIC), start);
+        }
+
+        @Override
+        public void visit(StrongEmphasis strongEmphasis) {
+            final int start = builder.length();
+            visitChildren(strongEmphasis);
+            setSpan(new StyleSpan(Typeface.BOLD), start);
+        }
+
+        @Override
+        public void visit(Code code) {
+            final int start = builder.length();
+            builder.append(code.getLiteral());
+            setSpan(new TypefaceSpan(MONOSPACE), start);
+        }
+
+        @Override
+        public void visit(Link link) {
+            final int start = builder.length();
+            visitChildren(link);
+            setSpan(new URLSpan(link.getDestination()), start);
+        }
+
+        @Override
+        public void visit(Text text) {
+            builder.append(text.getLiteral());
+        }
+
+        @Override
+        public void visit(SoftLineBreak softLineBreak) {
+            builder.append('\n');
+        }
+
+        @Override
+        public void visit(HardLineBreak hardLineBreak) {
+            builder.append('\n');
+        }
+
+        /**
+         * Top level blocks are separated by an empty line, blocks within list items by a line break.
+         * The first block of a list item directly follows the list item prefix.
+         */
+        private void startBlock() {
+            if (atListItemStart) {
+                atListItemStart = false;
+            } else if (lists.isEmpty()) {
+                ensureEmptyLine();
+            } else {
+                ensureNewLine();
+            }
+        }
+
+        private void ensureNewLine() {
+            final int length = builder.length();
+            if (length > 0 && builder.charAt(length - 1) != '\n') {
+                builder.append('\n');
+            }
+        }
+
+        private void ensureEmptyLine() {
+            ensureNewLine();
+            final int length = builder.length();
+            if (length > 0 && (length < 2 || builder.charAt(length - 2) != '\n')) {
+                builder.append('\n');
+            }
+        }
+
+        private void setSpan(@NonNull Object span, int start) {
+            if (start < builder.length()) {
+                builder.setSpan(span, start, builder.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package it.niedermann.android.markdown.search;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case insensitive search for one or more literal terms at once, backed by an Aho-Corasick automaton.
+ * <p>
+ * Compile it once per search and reuse it for each text which needs to be searched.
+ * Matches do not overlap and are reported as soon as they end, e. g. searching <code>abcd</code> and <code>bc</code>
+ * in <code>abcd</code> will report <code>bc</code> only.
+ */
+public final class CompiledSearch {
+
+    private static final CompiledSearch EMPTY = new CompiledSearch(Collections.emptyList());
+    private static final int[] NO_MATCHES = new int[0];
+
+    /**
+     * Transitions of state <code>s</code> are stored from <code>transitionOffsets[s]</code> (inclusive)
+     * to <code>transitionOffsets[s + 1]</code> (exclusive), sorted by their character.
+     */
+    private final int[] transitionOffsets;
+    private final char[] transitionChars;
+    private final int[] transitionTargets;
+    private final int[] failure;
+    /**
+     * Length of the longest term which ends in the given state, <code>0</code> if no term ends here.
+     */
+    private final int[] matchLength;
+
+    private CompiledSearch(@NonNull Collection<? extends CharSequence> terms) {
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        final var terminalLength = new ArrayList<Integer>();
+        terminalLength.add(0);
+
+        for (final var term : terms) {
+            if (term == null || term.length() == 0) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                final char c = fold(term.charAt(i));
+                final var next = trie.get(state).get(c);
+                if (next == null) {
+                    trie.add(new TreeMap<>());
+                    terminalLength.add(0);
+                    trie.get(state).put(c, trie.size() - 1);
+                    state = trie.size() - 1;
+                } else {
+                    state = next;
+                }
+            }
+            terminalLength.set(state, term.length());
+        }
+
+        final int stateCount = trie.size();
+        this.transitionOffsets = new int[stateCount + 1];
+        int transitionCount = 0;
+        for (int state = 0; state < stateCount; state++) {
+            transitionOffsets[state] = transitionCount;
+            transitionCount += trie.get(state).size();
+        }
+        transitionOffsets[stateCount] = transitionCount;
+        this.transitionChars = new char[transitionCount];
+        this.transitionTargets = new int[transitionCount];
+        for (int state = 0; state < stateCount; state++) {
+            int i = transitionOffsets[state];
+            for (final Map.Entry<Character, Integer> transition : trie.get(state).entrySet()) {
+                transitionChars[i] = transition.getKey();
+                transitionTargets[i] = transition.getValue();
+                i++;
+            }
+        }
+
+        this.failure = new int[stateCount];
+        this.matchLength = new int[stateCount];
+        final var queue = new ArrayDeque<Integer>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            for (int i = transitionOffsets[state]; i < transitionOffsets[state + 1]; i++) {
+                final int child = transitionTargets[i];
+                if (state != 0) {
+                    int fallback = failure[state];
+                    int target;
+                    while ((target = getTransition(fallback, transitionChars[i])) < 0 && fallback != 0) {
+                        fallback = failure[fallback];
+                    }
+                    failure[child] = Math.max(target, 0);
+                }
+                // A term ending in this state is always longer than any term ending in its failure state
+                matchLength[child] = terminalLength.get(child) > 0
+                        ? terminalLength.get(child)
+                        : matchLength[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @param terms to search for. Empty terms are ignored.
+     */
+    @NonNull
+    public static CompiledSearch compile(@NonNull CharSequence... terms) {
+        return compile(Arrays.asList(terms));
+    }
+
+    /**
+     * @param terms to search for. Empty terms are ignored.
+     */
+    @NonNull
+    public static CompiledSearch compile(@NonNull Collection<? extends CharSequence> terms) {
+        return terms.isEmpty() ? EMPTY : new CompiledSearch(terms);
+    }
+
+    /**
+     * @return whether this search does not contain any term and will therefore never match
+     */
+    public boolean isEmpty() {
+        return transitionOffsets[1] == 0;
+    }
+
+    /**
+     * @return start (inclusive) and end (exclusive) offsets of all matches in {@param text}, flattened into pairs:
+     * <code>[start<sub>0</sub>, end<sub>0</sub>, start<sub>1</sub>, end<sub>1</sub>, …]</code>
+     */
+    @NonNull
+    public int[] findAll(@NonNull CharSequence text) {
+        return findAll(text, 0, text.length());
+    }
+
+    /**
+     * @return start (inclusive) and end (exclusive) offsets of all matches between {@param start} and {@param end} of {@param text}.
+     * @see #findAll(CharSequence)
+     */
+    @NonNull
+    public int[] findAll(@NonNull CharSequence text, int start, int end) {
+        if (isEmpty()) {
+            return NO_MATCHES;
+        }
+        int[] matches = new int[16];
+        int size = 0;
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            state = next(state, fold(text.charAt(i)));
+            final int length = matchLength[state];
+            if (length > 0) {
+                if (size + 2 > matches.length) {
+                    matches = Arrays.copyOf(matches, matches.length * 2);
+                }
+                matches[size++] = i + 1 - length;
+                matches[size++] = i + 1;
+                state = 0;
+            }
+        }
+        return size == 0 ? NO_MATCHES : Arrays.copyOf(matches, size);
+    }
+
+    /**
+     * @return the number of matches in {@param text} without allocating them
+     */
+    public int count(@NonNull CharSequence text) {
+        return count(text, 0, text.length());
+    }
+
+    /**
+     * @return the number of matches between {@param start} and {@param end} of {@param text} without allocating them
+     */
+    public int count(@NonNull CharSequence text, int start, int end) {
+        if (isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            state = next(state, fold(text.charAt(i)));
+            if (matchLength[state] > 0) {
+                count++;
+                state = 0;
+            }
+        }
+        return count;
+    }
+
+    private int next(int state, char c) {
+        int target;
+        while ((target = getTransition(state, c)) < 0 && state != 0) {
+            state = failure[state];
+        }
+        return Math.max(target, 0);
+    }
+
+    /**
+     * @return the target state of the transition from {@param state} with {@param c} or <code>-1</code> if there is none
+     */
+    private int getTransition(int state, char c) {
+        int low = transitionOffsets[state];
+        int high = transitionOffsets[state + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = transitionChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return transitionTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Folds the case of {@param c} the same way {@link String#equalsIgnoreCase(String)} does.
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
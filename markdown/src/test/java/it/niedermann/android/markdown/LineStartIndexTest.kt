@@ -0,0 +1,48 @@
+package it.niedermann.android.markdown
+
+import android.text.SpannableStringBuilder
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class LineStartIndexTest : TestCase() {
+
+    @Test
+    fun `should index line starts`() {
+        val index = LineStartIndex("Foo\n\nBar\n")
+        assertEquals(4, index.lineCount)
+        assertEquals(listOf(0, 4, 5, 9), (0 until index.lineCount).map { index.getLineStart(it) })
+        assertEquals(3, index.getLineEnd(0))
+        assertEquals(9, index.getLineEnd(3))
+        assertEquals(5, index.getStartOfLine(7))
+        assertEquals(8, index.getEndOfLine(7))
+    }
+
+    @Test
+    fun `should stay in sync with text changes`() {
+        val random = Random(42)
+        val text = SpannableStringBuilder("Foo\nBar\n\nBaz")
+        val index = LineStartIndex(text)
+
+        repeat(500) {
+            val start = random.nextInt(text.length + 1)
+            val end = start + random.nextInt(minOf(3, text.length - start) + 1)
+            val inserted = (0 until random.nextInt(4)).map { "ab\n"[random.nextInt(3)] }.joinToString("")
+            text.replace(start, end, inserted)
+            index.onTextChanged(text, start, end - start, inserted.length)
+
+            val expected = LineStartIndex(text.toString())
+            assertEquals(expected.lineCount, index.lineCount)
+            for (line in 0 until expected.lineCount) {
+                assertEquals(expected.getLineStart(line), index.getLineStart(line))
+            }
+            for (offset in 0..text.length) {
+                assertEquals(MarkdownUtil.getStartOfLine(text, offset), index.getStartOfLine(offset))
+                assertEquals(MarkdownUtil.getEndOfLine(text, offset), index.getEndOfLine(offset))
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package it.niedermann.android.markdown
+
+import it.niedermann.android.markdown.model.EListType
+import junit.framework.TestCase
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MarkdownLineIndexTest : TestCase() {
+
+    @Test
+    fun `should index line starts and ends`() {
+        val index = MarkdownLineIndex.of("Foo\n\nBar\n")
+        assertEquals(4, index.lineCount)
+        assertEquals(0, index.getLineStart(0))
+        assertEquals(3, index.getLineEnd(0))
+        assertEquals(4, index.getLineStart(1))
+        assertEquals(4, index.getLineEnd(1))
+        assertEquals(5, index.getLineStart(2))
+        assertEquals(8, index.getLineEnd(2))
+        assertEquals(9, index.getLineStart(3))
+        assertEquals(9, index.getLineEnd(3))
+
+        assertEquals(0, index.getLineOfOffset(0))
+        assertEquals(0, index.getLineOfOffset(3))
+        assertEquals(1, index.getLineOfOffset(4))
+        assertEquals(2, index.getLineOfOffset(7))
+        assertEquals(3, index.getLineOfOffset(9))
+
+        assertThrows(IndexOutOfBoundsException::class.java) { index.getLineStart(4) }
+        assertThrows(IndexOutOfBoundsException::class.java) { index.getLineOfOffset(10) }
+    }
+
+    @Test
+    fun `should index empty content as one line`() {
+        val index = MarkdownLineIndex.of("")
+        assertEquals(1, index.lineCount)
+        assertEquals(0, index.getLineStart(0))
+        assertEquals(0, index.getLineEnd(0))
+        assertEquals(0, index.checkboxCount)
+    }
+
+    @Test
+    fun `should index checkboxes outside of fenced code blocks`() {
+        for (listType in EListType.entries) {
+            val index = MarkdownLineIndex.of(
+                """
+                ${listType.checkboxChecked} Item
+                ````
+                ```
+                ${listType.checkboxUnchecked} Item
+                ````
+                ${listType.checkboxUnchecked}
+                  ${listType.checkboxCheckedUpperCase} Item
+                """.trimIndent()
+            )
+            assertEquals(2, index.checkboxCount)
+
+            assertEquals(0, index.getCheckboxLine(0))
+            assertEquals(3, index.getCheckboxOffset(0))
+            assertTrue(index.isCheckboxChecked(0))
+
+            assertEquals(6, index.getCheckboxLine(1))
+            assertEquals(index.getLineStart(6) + 5, index.getCheckboxOffset(1))
+            assertTrue(index.isCheckboxChecked(1))
+
+            assertEquals(0, index.getCheckboxIndexOfLine(0))
+            assertEquals(-1, index.getCheckboxIndexOfLine(3))
+            assertEquals(-1, index.getCheckboxIndexOfLine(5))
+            assertEquals(1, index.getCheckboxIndexOfLine(6))
+            assertEquals(1, index.getCheckboxIndexOfOffset(index.getCheckboxOffset(1)))
+            assertEquals(-1, index.getCheckboxIndexOfOffset(0))
+        }
+    }
+
+    @Test
+    fun `should detect fenced code blocks`() {
+        val index = MarkdownLineIndex.of(
+            """
+            Foo
+            ```
+            - [ ] Code
+            ```
+            Bar
+            ````
+            Unclosed
+            """.trimIndent()
+        )
+        assertFalse(index.isInFencedCodeBlock(0))
+        assertTrue(index.isInFencedCodeBlock(1))
+        assertTrue(index.isInFencedCodeBlock(2))
+        assertTrue(index.isInFencedCodeBlock(3))
+        assertFalse(index.isInFencedCodeBlock(4))
+        assertTrue(index.isInFencedCodeBlock(5))
+        assertTrue(index.isInFencedCodeBlock(6))
+        assertEquals(0, index.checkboxCount)
+    }
+}
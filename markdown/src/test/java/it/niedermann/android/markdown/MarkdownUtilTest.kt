@@ -492,6 +492,11 @@ class MarkdownUtilTest : TestCase() {
         builder = SpannableStringBuilder("Italic\n**Bold**")
         assertEquals(7, MarkdownUtil.togglePunctuation(builder, 0, 6, "*"))
         assertEquals("*Italic*\n**Bold**", builder.toString())
+
+        // Punctuation of neighbouring lines is not touched
+        builder = SpannableStringBuilder("Foo**\nBar**")
+        assertEquals(10, MarkdownUtil.togglePunctuation(builder, 6, 9, "*"))
+        assertEquals("Foo**\n*Bar***", builder.toString())
     }
 
     @Test
@@ -958,6 +963,32 @@ class MarkdownUtilTest : TestCase() {
         }
     }
 
+    @Test
+    fun setCheckboxStatusAtOffset() {
+        for (listType in EListType.entries) {
+            val origin_1 = """
+                ${listType.checkboxUnchecked} Foo
+                  ${listType.checkboxChecked} Bar
+            """.trimIndent()
+            val expected_1 = """
+                ${listType.checkboxChecked} Foo
+                  ${listType.checkboxChecked} Bar
+            """.trimIndent()
+            assertEquals(expected_1, MarkdownUtil.setCheckboxStatusAtOffset(origin_1, 3, true).get())
+            val expected_2 = """
+                ${listType.checkboxUnchecked} Foo
+                  ${listType.checkboxUnchecked} Bar
+            """.trimIndent()
+            assertEquals(expected_2, MarkdownUtil.setCheckboxStatusAtOffset(origin_1, 15, false).get())
+
+            // Offsets which do not point into a checkbox must not change anything
+            assertTrue(MarkdownUtil.setCheckboxStatusAtOffset(origin_1, -1, true).isEmpty)
+            assertTrue(MarkdownUtil.setCheckboxStatusAtOffset(origin_1, 0, true).isEmpty)
+            assertTrue(MarkdownUtil.setCheckboxStatusAtOffset(origin_1, 7, true).isEmpty)
+            assertTrue(MarkdownUtil.setCheckboxStatusAtOffset(origin_1, origin_1.length, true).isEmpty)
+        }
+    }
+
     @Test
     fun removeSpans() {
         try {
@@ -1132,4 +1163,35 @@ class MarkdownUtilTest : TestCase() {
             MarkdownUtil.removeMarkdown("2021-03-24 - Example text")
         )
     }
+
+    @Test
+    fun removeMarkdownWithMaxLength() {
+        assertEquals("", MarkdownUtil.removeMarkdown("Foo", 0))
+        assertEquals("Fo", MarkdownUtil.removeMarkdown("Foo", 2))
+        assertEquals("Foo", MarkdownUtil.removeMarkdown("# Foo", 10))
+        assertEquals("Foo\nB", MarkdownUtil.removeMarkdown("# Foo\n\n**Bar**", 5))
+        assertEquals("Foo Link", MarkdownUtil.removeMarkdown("Foo [Link](https://example.com) Bar", 8))
+
+        // Only a prefix of long sources gets parsed
+        val longNote = "# Title\n" + "Lorem ipsum dolor sit amet\n".repeat(1_000)
+        assertEquals("Title\nLorem", MarkdownUtil.removeMarkdown(longNote, 11))
+        assertEquals(MarkdownUtil.removeMarkdown(longNote), MarkdownUtil.removeMarkdown(longNote, longNote.length))
+
+        // The prefix is not sufficient if the markup is much longer than the plain text
+        val longMarkup = "[a](https://example.com/${"x".repeat(100)})\n\nFoo"
+        assertEquals("a\nFoo", MarkdownUtil.removeMarkdown(longMarkup, 10))
+
+        // Reference links of the prefix might be defined at the end of the source
+        val referenceNote = "[Link][ref]\n\n" + "Lorem ipsum dolor sit amet\n".repeat(1_000) + "\n[ref]: https://example.com"
+        assertEquals("Link", MarkdownUtil.removeMarkdown(referenceNote, 4))
+    }
+
+    @Test
+    fun removeMarkdownBatch() {
+        val contents = (0 until 500).map { "# Note $it\n\n**Content** of note $it" }
+        val excerpts = MarkdownUtil.removeMarkdown(contents, 20)
+        assertEquals(contents.size, excerpts.size)
+        excerpts.forEachIndexed { i, excerpt -> assertEquals(MarkdownUtil.removeMarkdown(contents[i], 20), excerpt) }
+        assertEquals(0, MarkdownUtil.removeMarkdown(emptyList(), 20).size)
+    }
 }
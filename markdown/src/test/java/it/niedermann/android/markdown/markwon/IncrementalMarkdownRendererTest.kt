@@ -0,0 +1,87 @@
+package it.niedermann.android.markdown.markwon
+
+import android.content.Context
+import android.graphics.Color
+import android.text.Spanned
+import androidx.test.core.app.ApplicationProvider
+import io.noties.markwon.Markwon
+import io.noties.markwon.ext.strikethrough.StrikethroughPlugin
+import io.noties.markwon.ext.tables.TablePlugin
+import io.noties.markwon.ext.tables.TableRowSpan
+import io.noties.markwon.ext.tasklist.TaskListPlugin
+import it.niedermann.android.markdown.markwon.plugins.ToggleableTaskListPlugin
+import it.niedermann.android.markdown.markwon.span.ToggleTaskListSpan
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class IncrementalMarkdownRendererTest : TestCase() {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+
+    private fun key(markdown: String) = RenderedMarkdownCache.Key(markdown, Color.RED, false, false, null, null)
+
+    private fun createMarkwon() = Markwon.builder(context)
+        .usePlugin(StrikethroughPlugin.create())
+        .usePlugin(TaskListPlugin.create(context))
+        .usePlugin(ToggleableTaskListPlugin.create { _, _, _ -> })
+        .build()
+
+    private fun Spanned.checkboxes() = getSpans(0, length, ToggleTaskListSpan::class.java)
+        .sortedBy { getSpanStart(it) }
+        .map { Pair(it.position, it.sourceOffset) }
+        .distinct()
+
+    @Test
+    fun `should split at blank lines before top level blocks`() {
+        val blocks = IncrementalMarkdownRenderer.split("# Foo\n\nBar\n\n- a\n\n- b\n\n```\nx\n\ny\n```\n\n~~Baz~~")!!
+        assertEquals(
+            listOf("# Foo\n\n", "Bar\n\n- a\n\n- b\n\n", "```\nx\n\ny\n```\n\n", "~~Baz~~"),
+            blocks.map { it.source })
+        assertEquals(listOf(0, 7, 22, 36), blocks.map { it.start })
+
+        assertEquals(1, IncrementalMarkdownRenderer.split("Foo\nBar\n\n  Baz\n1. Qux")!!.size)
+        assertNull(IncrementalMarkdownRenderer.split("Foo [bar]\n\n[bar]: https://example.com"))
+        assertNull(IncrementalMarkdownRenderer.split("Foo\n\n<div>\n\nBar\n</div>"))
+    }
+
+    @Test
+    fun `should render like a full render`() {
+        val markwon = createMarkwon()
+        val renderer = IncrementalMarkdownRenderer()
+        val blockMarkwon = createMarkwon()
+        val sources = listOf(
+            "# Foo\n\n- [ ] a\n- [x] b\n\nBar\n\n```\nx\n\ny\n```\n\n- [ ] c",
+            "# Foo\n\n- [ ] a\n- [x] b\n\nBar **baz**\n\n```\nx\n\ny\n```\n\n- [ ] c",
+            "# Foo\n\n- [ ] a\n\nBar **baz**\n\n```\nx\n\ny\n```\n\n- [x] c\n- [ ] d",
+            "Foo\n\n\n\n---\n\n> Bar\n\n1. Baz\n2. Qux",
+        )
+        for (source in sources) {
+            val expected = markwon.render(markwon.parse(source))
+            val actual = renderer.render(key(source)) { blockMarkwon.render(blockMarkwon.parse(it)) }
+            assertEquals(expected.toString(), actual.toString())
+            assertEquals(expected.checkboxes(), actual.checkboxes())
+        }
+    }
+
+    @Test
+    fun `should reuse rendered tables`() {
+        val markwon = Markwon.builder(context).usePlugin(TablePlugin.create(context)).build()
+        val renderer = IncrementalMarkdownRenderer()
+        val render = { source: String -> renderer.render(key(source)) { markwon.render(markwon.parse(it)) } }
+        val rows = { rendered: Spanned -> rendered.getSpans(0, rendered.length, TableRowSpan::class.java).toList() }
+        val table = "| a | b |\n|---|---|\n| c | d |\n"
+
+        val first = rows(render("Foo\n\n$table"))
+        assertEquals(2, first.size)
+        assertEquals(first, rows(render("Bar\n\n$table")))
+
+        render("Baz")
+        assertEquals(first, rows(render("Foo\n\n$table")))
+
+        val duplicated = rows(render("$table\n$table\n"))
+        assertEquals(4, duplicated.toSet().size)
+    }
+}
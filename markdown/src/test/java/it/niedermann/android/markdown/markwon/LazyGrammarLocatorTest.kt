@@ -0,0 +1,66 @@
+package it.niedermann.android.markdown.markwon
+
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class LazyGrammarLocatorTest : TestCase() {
+
+    @Test
+    fun `should load grammars on first use`() {
+        val locator = LazyGrammarLocator(8)
+        assertFalse(locator.isLoaded("java"))
+
+        val grammar = locator.prism4j.grammar("java")
+        assertNotNull(grammar)
+        assertTrue(locator.isLoaded("java"))
+        assertSame(grammar, locator.prism4j.grammar("java"))
+        assertNull(locator.prism4j.grammar("no-such-language"))
+    }
+
+    @Test
+    fun `should evict least recently used grammars`() {
+        val locator = LazyGrammarLocator(2)
+        locator.prism4j.grammar("json")
+        locator.prism4j.grammar("yaml")
+        locator.prism4j.grammar("json")
+        locator.prism4j.grammar("sql")
+
+        assertTrue(locator.isLoaded("json"))
+        assertFalse(locator.isLoaded("yaml"))
+        assertTrue(locator.isLoaded("sql"))
+    }
+
+    @Test
+    fun `should apply modifications again after eviction`() {
+        val locator = LazyGrammarLocator(1)
+        assertTrue(locator.prism4j.grammar("markup")!!.tokens().any { it.name() == "style" })
+
+        locator.prism4j.grammar("sql")
+        assertFalse(locator.isLoaded("markup"))
+        assertTrue(locator.prism4j.grammar("markup")!!.tokens().any { it.name() == "style" })
+    }
+
+    @Test
+    fun `should not apply modifications twice when modifiers get evicted`() {
+        val locator = LazyGrammarLocator(5)
+        val markup = locator.prism4j.grammar("markup")!!
+        val tokenCount = markup.tokens().size
+
+        repeat(3) {
+            locator.prism4j.grammar("json")
+            locator.prism4j.grammar("yaml")
+            locator.prism4j.grammar("markup")
+            locator.prism4j.grammar("sql")
+            locator.prism4j.grammar("css")
+            locator.prism4j.grammar("javascript")
+            locator.prism4j.grammar("css-extras")
+        }
+
+        assertEquals(tokenCount, markup.tokens().size)
+        assertEquals(tokenCount, locator.prism4j.grammar("markup")!!.tokens().size)
+        assertEquals(1, locator.prism4j.grammar("markup")!!.tokens().count { it.name() == "style" })
+    }
+}
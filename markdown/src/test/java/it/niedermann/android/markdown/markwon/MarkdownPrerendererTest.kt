@@ -0,0 +1,70 @@
+package it.niedermann.android.markdown.markwon
+
+import android.content.Context
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import io.mockk.every
+import io.mockk.mockkStatic
+import io.mockk.spyk
+import io.mockk.unmockkStatic
+import io.mockk.verify
+import junit.framework.TestCase
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MarkdownPrerendererTest : TestCase() {
+
+    private lateinit var sharedMarkwon: SharedMarkwon
+    private lateinit var prerenderer: MarkdownPrerenderer
+
+    @Before
+    fun setup() {
+        RenderedMarkdownCache.getInstance().clear()
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        sharedMarkwon = spyk(SharedMarkwon.get(context, false, Color.RED))
+        mockkStatic(SharedMarkwon::class)
+        every { SharedMarkwon.get(any(), false, Color.RED) } returns sharedMarkwon
+        prerenderer = MarkdownPrerenderer(context, false, Color.RED, 1)
+    }
+
+    @After
+    fun teardown() {
+        prerenderer.shutdown()
+        unmockkStatic(SharedMarkwon::class)
+        RenderedMarkdownCache.getInstance().clear()
+    }
+
+    /**
+     * Same key as a [MarkwonMarkdownViewer] with the same settings uses
+     */
+    private fun viewerKey(markdown: String) = RenderedMarkdownCache.Key(markdown, Color.RED, false, false, null, null)
+
+    @Test
+    fun `should render markdown for the cache of the viewers`() {
+        prerenderer.prerender("**Foo**")
+        prerenderer.awaitIdle()
+
+        assertEquals("Foo", RenderedMarkdownCache.getInstance().get(viewerKey("**Foo**")).toString())
+
+        prerenderer.prerender("**Foo**")
+        prerenderer.awaitIdle()
+        verify(exactly = 1) { sharedMarkwon.render("**Foo**", null, null) }
+    }
+
+    @Test
+    fun `should not render markdown again which is refused by the cache`() {
+        val table = "| Foo | Bar |\n| --- | --- |\n| Baz | Qux |"
+        prerenderer.prerender(table)
+        prerenderer.awaitIdle()
+
+        assertNull(RenderedMarkdownCache.getInstance().get(viewerKey(table)))
+
+        prerenderer.prerender(table)
+        prerenderer.awaitIdle()
+        verify(exactly = 1) { sharedMarkwon.render(table, null, null) }
+    }
+}
@@ -7,11 +7,13 @@ import io.mockk.clearAllMocks
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.verify
+import it.niedermann.android.markdown.MarkdownEdit
 import it.niedermann.android.markdown.controller.EditorStateListener
 import it.niedermann.android.markdown.controller.EditorStateNotifier
 import it.niedermann.android.markdown.controller.MarkdownController
 import it.niedermann.android.markdown.markwon.format.AbstractFormattingCallback
 import junit.framework.TestCase
+import org.junit.Assert.assertThrows
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -133,4 +135,33 @@ class MarkwonMarkdownEditorTest : TestCase() {
             )
         }
     }
+
+    @Test
+    fun `should notify edits in order`() {
+        val edits = mutableListOf<MarkdownEdit>()
+        editor.setMarkdownEditListener { edits.add(it) }
+
+        editor.text!!.insert(3, "\n- bar")
+        editor.text!!.insert(9, "\n")
+
+        assertEquals("foo\n- bar\n- ", editor.text.toString())
+        assertEquals(listOf(1L, 1L), edits.zipWithNext { previous, next -> next.version - previous.version })
+        assertEquals("foo\n- bar\n- ", edits.fold("foo") { markdown, edit -> edit.applyTo(markdown) })
+        assertEquals("foo\n- bar\n- ", edits.last().markdownString)
+        assertThrows(IllegalStateException::class.java) { edits.first().markdownString }
+    }
+
+    @Test
+    fun `should provide the markdown only for the last edit of an auto continuation`() {
+        editor.setMarkdownString("- foo")
+        val markdownStrings = mutableListOf<String?>()
+        editor.setMarkdownEditListener {
+            markdownStrings.add(if (it.isMarkdownStringAvailable) it.markdownString else null)
+        }
+
+        editor.text!!.insert(5, "\n")
+
+        assertEquals("- foo\n- ", editor.text.toString())
+        assertEquals(listOf(null, "- foo\n- "), markdownStrings)
+    }
 }
@@ -0,0 +1,50 @@
+package it.niedermann.android.markdown.markwon
+
+import android.text.SpannableString
+import android.text.Spanned
+import android.text.style.StyleSpan
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class RenderedMarkdownCacheTest : TestCase() {
+
+    private fun key(markdown: String, color: Int = 0, accountName: String? = "foo") =
+        RenderedMarkdownCache.Key(markdown, color, false, true, accountName, null)
+
+    @Test
+    fun `should only return results for equal keys`() {
+        val cache = RenderedMarkdownCache(100)
+        val rendered = SpannableString("Foo")
+        rendered.setSpan(StyleSpan(1), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        cache.put(key("**Foo**"), rendered)
+
+        val cached = cache.get(key("**Foo**"))
+        assertEquals("Foo", cached.toString())
+        assertEquals(1, cached!!.getSpans(0, cached.length, StyleSpan::class.java).size)
+        assertNull(cache.get(key("**Foo**", color = 1)))
+        assertNull(cache.get(key("**Foo**", accountName = null)))
+        assertNull(cache.get(key("*Foo*")))
+
+        cache.clear()
+        assertNull(cache.get(key("**Foo**")))
+    }
+
+    @Test
+    fun `should evict least recently used results by characters and spans`() {
+        val cache = RenderedMarkdownCache(20)
+        cache.put(key("Foo"), SpannableString("Foo"))
+        cache.put(key("Bar"), SpannableString("Bar"))
+        assertNotNull(cache.get(key("Foo")))
+
+        val rendered = SpannableString("Baz")
+        rendered.setSpan(StyleSpan(1), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        cache.put(key("**Baz**"), rendered)
+
+        assertNotNull(cache.get(key("Foo")))
+        assertNull(cache.get(key("Bar")))
+        assertNotNull(cache.get(key("**Baz**")))
+    }
+}
@@ -0,0 +1,94 @@
+package it.niedermann.android.markdown.markwon
+
+import android.app.Activity
+import android.content.Context
+import android.graphics.drawable.Drawable
+import android.os.Looper
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.view.ViewGroup
+import android.widget.ScrollView
+import android.widget.TextView
+import com.bumptech.glide.Glide
+import com.bumptech.glide.RequestManager
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import io.mockk.verify
+import io.noties.markwon.core.MarkwonTheme
+import io.noties.markwon.image.AsyncDrawable
+import io.noties.markwon.image.AsyncDrawableLoader
+import io.noties.markwon.image.AsyncDrawableScheduler
+import io.noties.markwon.image.AsyncDrawableSpan
+import io.noties.markwon.image.ImageSizeResolverDef
+import it.niedermann.android.markdown.markwon.glide.DeferredImages
+import it.niedermann.android.markdown.markwon.plugins.CustomGlideStore
+import junit.framework.TestCase
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class VisibleImageLoaderTest : TestCase() {
+
+    private lateinit var requestManager: RequestManager
+
+    @Before
+    fun setup() {
+        requestManager = mockk(relaxed = true)
+        mockkStatic(Glide::class)
+        every { Glide.with(any<Context>()) } returns requestManager
+    }
+
+    @After
+    fun teardown() {
+        unmockkStatic(Glide::class)
+    }
+
+    @Test
+    fun `should only load images within the window around the viewport`() {
+        val activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+        val glideStore = CustomGlideStore(activity)
+        val loader = object : AsyncDrawableLoader() {
+            override fun load(drawable: AsyncDrawable) {
+                glideStore.load(drawable)
+            }
+
+            override fun cancel(drawable: AsyncDrawable) = Unit
+
+            override fun placeholder(drawable: AsyncDrawable): Drawable? = null
+        }
+        val theme = MarkwonTheme.create(activity)
+        val top = AsyncDrawable("https://example.com/top.png", loader, ImageSizeResolverDef(), null)
+        val bottom = AsyncDrawable("https://example.com/bottom.png", loader, ImageSizeResolverDef(), null)
+        val text = SpannableStringBuilder("Top\n" + "Foo\n".repeat(1_000) + "Bottom")
+        text.setSpan(AsyncDrawableSpan(theme, top, AsyncDrawableSpan.ALIGN_BOTTOM, false), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        text.setSpan(AsyncDrawableSpan(theme, bottom, AsyncDrawableSpan.ALIGN_BOTTOM, false), text.length - 6, text.length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val textView = TextView(activity)
+        val scrollView = ScrollView(activity)
+        scrollView.addView(textView, ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT)
+        activity.setContentView(scrollView, ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 200))
+        VisibleImageLoader.defer(text)
+        textView.text = text
+        AsyncDrawableScheduler.schedule(textView)
+        shadowOf(Looper.getMainLooper()).idle()
+
+        VisibleImageLoader(textView).onViewportChanged()
+        assertFalse(DeferredImages.isDeferred(top))
+        assertTrue(DeferredImages.isDeferred(bottom))
+        verify { requestManager.load("https://example.com/top.png") }
+        verify(exactly = 0) { requestManager.load("https://example.com/bottom.png") }
+
+        DeferredImages.allow(bottom)
+        DeferredImages.reload(bottom)
+        verify(exactly = 1) { requestManager.load("https://example.com/bottom.png") }
+    }
+}
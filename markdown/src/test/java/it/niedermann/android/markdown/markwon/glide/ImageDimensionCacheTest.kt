@@ -0,0 +1,36 @@
+package it.niedermann.android.markdown.markwon.glide
+
+import android.util.Size
+import junit.framework.TestCase
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ImageDimensionCacheTest : TestCase() {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun `should persist the dimensions of images`() {
+        val file = File(folder.root, "dimensions")
+        val longUrl = "https://example.com/" + "a".repeat(ImageDimensionCache.MAX_URL_LENGTH)
+        val cache = ImageDimensionCache(file)
+        cache.put("https://example.com/foo.png", 640, 480)
+        cache.put(longUrl, 640, 480)
+        cache.put("https://example.com/empty.png", 0, 480)
+        cache.put("https://example.com/negative.png", 640, -1)
+        cache.awaitIdle()
+
+        val reread = ImageDimensionCache(file)
+        reread.awaitIdle()
+        assertEquals(Size(640, 480), reread.get("https://example.com/foo.png"))
+        assertNull(reread.get(longUrl))
+        assertNull(reread.get("https://example.com/empty.png"))
+        assertNull(reread.get("https://example.com/negative.png"))
+    }
+}
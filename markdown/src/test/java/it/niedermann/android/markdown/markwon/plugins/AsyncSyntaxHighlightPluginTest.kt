@@ -0,0 +1,83 @@
+package it.niedermann.android.markdown.markwon.plugins
+
+import android.content.Context
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.ForegroundColorSpan
+import androidx.test.core.app.ApplicationProvider
+import io.noties.markwon.Markwon
+import io.noties.markwon.syntax.Prism4jThemeDefault
+import it.niedermann.android.markdown.markwon.LazyGrammarLocator
+import it.niedermann.android.markdown.markwon.span.PendingSyntaxHighlightSpan
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class AsyncSyntaxHighlightPluginTest : TestCase() {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+
+    private fun Spanned.pending() = getSpans(0, length, PendingSyntaxHighlightSpan::class.java)
+
+    private fun Spanned.highlighted() = getSpans(0, length, ForegroundColorSpan::class.java)
+
+    @Test
+    fun `should highlight code blocks after rendering`() {
+        val plugin = AsyncSyntaxHighlightPlugin.create(LazyGrammarLocator.getInstance().prism4j, Prism4jThemeDefault.create())
+        val markwon = Markwon.builder(context).usePlugin(plugin).build()
+        val markdown = "Foo\n\n```java\nfinal int foo = 1;\n```"
+
+        val plain = markwon.render(markwon.parse(markdown))
+        assertEquals(1, plain.pending().size)
+        assertEquals(0, plain.highlighted().size)
+
+        val bound = SpannableStringBuilder(plain)
+        assertTrue(plugin.highlight(plain.pending()))
+        plugin.applyHighlighted(bound)
+        assertEquals(0, bound.pending().size)
+        assertTrue(bound.highlighted().isNotEmpty())
+        assertEquals(plain.toString(), bound.toString())
+
+        val rendered = markwon.render(markwon.parse(markdown))
+        assertEquals(0, rendered.pending().size)
+        assertTrue(rendered.highlighted().isNotEmpty())
+    }
+
+    @Test
+    fun `should skip code blocks exceeding the limits`() {
+        val plugin = AsyncSyntaxHighlightPlugin.create(LazyGrammarLocator.getInstance().prism4j, Prism4jThemeDefault.create(), 10, 0)
+        val markwon = Markwon.builder(context).usePlugin(plugin).build()
+
+        val tooLong = markwon.render(markwon.parse("```java\nfinal int bar = 2;\n```"))
+        assertEquals(0, tooLong.pending().size)
+
+        val overBudget = markwon.render(markwon.parse("```java\nint a;\n```\n\n```java\nint b;\n```"))
+        assertFalse(plugin.highlight(overBudget.pending()))
+        assertEquals(0, markwon.render(markwon.parse("```java\nint b;\n```")).highlighted().size)
+    }
+
+    @Test
+    fun `should only skip code blocks for the document which exceeded its time budget`() {
+        val prism4j = LazyGrammarLocator.getInstance().prism4j
+        val overBudgetPlugin = AsyncSyntaxHighlightPlugin.create(prism4j, Prism4jThemeDefault.create(), 20_000, 0)
+        val overBudgetMarkwon = Markwon.builder(context).usePlugin(overBudgetPlugin).build()
+        val markdown = "```java\nfinal long skipped = 3L;\n```"
+
+        val overBudget = overBudgetMarkwon.render(overBudgetMarkwon.parse(markdown))
+        assertFalse(overBudgetPlugin.highlight(overBudget.pending()))
+        assertTrue(overBudget.pending().all { it.isSkipped })
+        val bound = SpannableStringBuilder(overBudget)
+        overBudgetPlugin.applyHighlighted(bound)
+        assertEquals(0, bound.pending().size)
+        assertEquals(0, bound.highlighted().size)
+
+        val plugin = AsyncSyntaxHighlightPlugin.create(prism4j, Prism4jThemeDefault.create())
+        val markwon = Markwon.builder(context).usePlugin(plugin).build()
+        val rendered = markwon.render(markwon.parse(markdown))
+        assertEquals(1, rendered.pending().size)
+        assertTrue(plugin.highlight(rendered.pending()))
+        assertTrue(markwon.render(markwon.parse(markdown)).highlighted().isNotEmpty())
+    }
+}
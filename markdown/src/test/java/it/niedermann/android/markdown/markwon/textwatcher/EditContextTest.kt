@@ -0,0 +1,44 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import it.niedermann.android.markdown.markwon.textwatcher.EditContext.LineType
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class EditContextTest : TestCase() {
+
+    @Test
+    fun `should describe the changed line`() {
+        val context = EditContext.of("Foo\n- Bar\nBaz", 8, 0, 1, "", null)
+        assertEquals("r", context.inserted)
+        assertEquals(4, context.lineStart)
+        assertEquals(9, context.lineEnd)
+        assertEquals("- Bar", context.line)
+        assertEquals(LineType.LIST_ITEM, context.lineType)
+        assertFalse(context.isLineBreakAppended)
+    }
+
+    @Test
+    fun `should classify lines`() {
+        fun lineType(line: String) = EditContext.of(line, 0, 0, 0, "", null).lineType
+
+        assertEquals(LineType.TEXT, lineType("Foo"))
+        assertEquals(LineType.TEXT, lineType("-Foo"))
+        assertEquals(LineType.LIST_ITEM, lineType("  * Foo"))
+        assertEquals(LineType.LIST_ITEM, lineType("+"))
+        assertEquals(LineType.CHECKBOX_ITEM, lineType("- [ ] Foo"))
+        assertEquals(LineType.CHECKBOX_ITEM, lineType("  - [x]"))
+        assertEquals(LineType.ORDERED_LIST_ITEM, lineType("12. Foo"))
+        assertEquals(LineType.ORDERED_LIST_ITEM, lineType("1. "))
+    }
+
+    @Test
+    fun `should detect appended line breaks and removed characters`() {
+        assertTrue(EditContext.of("- Foo\n", 5, 0, 1, "", null).isLineBreakAppended)
+        assertTrue(EditContext.of("- Foo\n", 2, 3, 4, "Foo", null).isLineBreakAppended)
+        assertFalse(EditContext.of("- Foo\n", 2, 4, 4, "Foo\n", null).isLineBreakAppended)
+        assertTrue(EditContext.of("- Fo", 4, 1, 0, "o", null).isSingleCharacterRemoved)
+    }
+}
@@ -0,0 +1,80 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.text.SpannableStringBuilder
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class EditHistoryTest : TestCase() {
+
+    private fun SpannableStringBuilder.edit(start: Int, end: Int, inserted: String): EditContext {
+        val removed = substring(start, end)
+        replace(start, end, inserted)
+        return EditContext.of(this, start, end - start, inserted.length, removed, null)
+    }
+
+    private fun EditHistory.record(edit: EditContext, uptimeMillis: Long) = record(listOf(edit), uptimeMillis)
+
+    @Test
+    fun `should group typing into transactions`() {
+        val history = EditHistory()
+        val text = SpannableStringBuilder("Foo")
+
+        history.record(text.edit(3, 3, " "), 0)
+        history.record(text.edit(4, 4, "b"), 100)
+        history.record(text.edit(5, 5, "a"), 200)
+        history.record(text.edit(5, 6, ""), 300)
+        history.record(text.edit(5, 5, "r"), 400)
+        history.record(listOf(text.edit(6, 6, "\n"), text.edit(7, 7, "- ")), 500)
+        history.record(text.edit(9, 9, "x"), 600)
+        history.record(text.edit(10, 10, "y"), 5_000)
+        assertEquals("Foo br\n- xy", text.toString())
+
+        assertEquals(10, history.undo(text))
+        assertEquals("Foo br\n- x", text.toString())
+        assertEquals(9, history.undo(text))
+        assertEquals("Foo br\n- ", text.toString())
+        assertEquals(6, history.undo(text))
+        assertEquals("Foo br", text.toString())
+        assertEquals(3, history.undo(text))
+        assertEquals("Foo", text.toString())
+        assertFalse(history.canUndo())
+        assertEquals(-1, history.undo(text))
+
+        assertEquals(6, history.redo(text))
+        assertEquals(9, history.redo(text))
+        assertEquals("Foo br\n- ", text.toString())
+
+        history.record(text.edit(0, 3, "Bar"), 6_000)
+        assertFalse(history.canRedo())
+        assertEquals(3, history.undo(text))
+        assertEquals("Foo br\n- ", text.toString())
+        assertEquals(6, history.undo(text))
+        assertEquals("Foo br", text.toString())
+    }
+
+    @Test
+    fun `should drop the oldest transactions when exceeding the maximum size`() {
+        val history = EditHistory(120)
+        val text = SpannableStringBuilder()
+
+        history.record(text.edit(0, 0, "a".repeat(40)), 0)
+        history.record(text.edit(40, 40, "\n" + "b".repeat(40)), 0)
+        assertTrue(history.canUndo())
+        history.undo(text)
+        assertTrue(history.canUndo())
+        assertEquals("a".repeat(40), text.toString())
+        history.redo(text)
+
+        history.record(text.edit(81, 81, "\n" + "c".repeat(40)), 0)
+        history.undo(text)
+        history.undo(text)
+        assertFalse(history.canUndo())
+        assertEquals("a".repeat(40), text.toString())
+
+        history.setMaxSize(10)
+        assertFalse(history.canRedo())
+    }
+}
@@ -0,0 +1,163 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.app.Activity
+import android.os.Looper
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.view.ViewGroup
+import android.widget.ScrollView
+import io.mockk.mockk
+import io.noties.markwon.core.spans.StrongEmphasisSpan
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class IncrementalEditorTextWatcherTest : TestCase() {
+
+    private fun region(text: String, changeStart: Int, changeEnd: Int = changeStart) =
+        IncrementalEditorTextWatcher.findRegion(
+            SpannableStringBuilder(text),
+            changeStart,
+            changeEnd,
+            IncrementalEditorTextWatcher.containsLinkReferenceDefinition(text, 0, text.length),
+            null
+        )
+
+    @Test
+    fun `should re-parse only the changed blocks`() {
+        val text = "# Foo\n\nBar\nBaz\n\nQux"
+        assertEquals(IncrementalEditorTextWatcher.Region(0, 6), region(text, 2))
+        assertEquals(IncrementalEditorTextWatcher.Region(7, 15), region(text, 12))
+        assertEquals(IncrementalEditorTextWatcher.Region(0, 15), region(text, 3, 9))
+        assertEquals(IncrementalEditorTextWatcher.Region(16, 19), region(text, 19))
+    }
+
+    @Test
+    fun `should re-parse everything when a fence changes`() {
+        val text = "Foo\n\n```\nBar\n\nBaz\n```\n\nQux"
+        assertEquals(IncrementalEditorTextWatcher.Region(0, text.length), region(text, 7))
+        assertEquals(IncrementalEditorTextWatcher.Region(0, text.length), region(text, 16))
+        assertEquals(IncrementalEditorTextWatcher.Region(0, 4), region(text, 1))
+        assertEquals(IncrementalEditorTextWatcher.Region(23, 26), region(text, 24))
+    }
+
+    @Test
+    fun `should re-parse everything when links are defined by reference`() {
+        val text = "Foo [Bar][bar]\n\nBaz\n\n[bar]: https://example.com"
+        assertEquals(IncrementalEditorTextWatcher.Region(0, text.length), region(text, 2))
+        assertEquals(IncrementalEditorTextWatcher.Region(0, text.length), region(text, 18))
+    }
+
+    @Test
+    fun `should only scan the whole text for link reference definitions when a change might have broken one`() {
+        val watcher = IncrementalEditorTextWatcher(mockk(), mockk())
+        val text = SpannableStringBuilder("Foo [Bar][bar]\n\nBaz")
+        assertFalse(watcher.updateLinkReferenceDefinitions(text, 0, text.length))
+
+        text.append("\n\n[bar]: https://example.com")
+        watcher.onTextChanged(EditContext.of(text, 19, 0, 28, "", null))
+        assertTrue(watcher.updateLinkReferenceDefinitions(text, 16, text.length))
+
+        text.insert(18, "Qux")
+        watcher.onTextChanged(EditContext.of(text, 18, 0, 3, "", null))
+        assertTrue(watcher.updateLinkReferenceDefinitions(text, 16, 22))
+
+        text.delete(29, 30)
+        watcher.onTextChanged(EditContext.of(text, 29, 1, 0, ":", null))
+        assertFalse(watcher.updateLinkReferenceDefinitions(text, 24, text.length))
+    }
+
+    @Test
+    fun `should re-parse continuations of list items together with the item`() {
+        val text = "- Foo\n\n  Bar\n\n- Baz\n\nQux"
+        assertEquals(IncrementalEditorTextWatcher.Region(0, 13), region(text, 9))
+        assertEquals(IncrementalEditorTextWatcher.Region(0, 13), region(text, 2))
+        assertEquals(IncrementalEditorTextWatcher.Region(14, 20), region(text, 15))
+    }
+
+    @Test
+    fun `should transfer the changed spans of the processed region`() {
+        val editable = SpannableStringBuilder("Foo\n\nBar Baz\n\nQux")
+        val removed = Any()
+        val moved = Any()
+        val kept = Any()
+        val clipped = Any()
+        val outside = Any()
+        editable.setSpan(removed, 5, 8, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        editable.setSpan(moved, 5, 8, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        editable.setSpan(kept, 9, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        editable.setSpan(clipped, 0, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        editable.setSpan(outside, 14, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val processed = SpannableStringBuilder(editable, 5, 13)
+        val previousRanges = IncrementalEditorTextWatcher.getRanges(processed)
+        val added = Any()
+        processed.removeSpan(removed)
+        processed.setSpan(moved, 4, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        processed.setSpan(added, 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        IncrementalEditorTextWatcher(mockk(), mockk()).apply(editable, 5, processed, previousRanges)
+
+        assertEquals(-1, editable.getSpanStart(removed))
+        assertEquals(9, editable.getSpanStart(moved))
+        assertEquals(12, editable.getSpanEnd(moved))
+        assertEquals(5, editable.getSpanStart(added))
+        assertEquals(8, editable.getSpanEnd(added))
+        assertEquals(9, editable.getSpanStart(kept))
+        assertEquals(12, editable.getSpanEnd(kept))
+        assertEquals(0, editable.getSpanStart(clipped))
+        assertEquals(17, editable.getSpanEnd(clipped))
+        assertEquals(14, editable.getSpanStart(outside))
+    }
+
+    @Test
+    fun `should only style the window around the viewport of large documents`() {
+        val activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+        val editor = MarkwonMarkdownEditor(activity)
+        val scrollView = ScrollView(activity)
+        scrollView.addView(editor, ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT)
+        activity.setContentView(scrollView, ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 200))
+        editor.setLargeDocumentThreshold(1_000)
+        editor.setText((0 until 3_000).joinToString("\n\n") { "**Foo $it**" })
+        val stage = editor.getIncrementalEditorStage()
+
+        awaitUntil { isStyled(editor, 0) }
+        scrollView.scrollTo(0, editor.height)
+        stage.onViewportChanged()
+        awaitUntil { isStyled(editor, editor.length() - 1) }
+        assertFalse(isStyled(editor, 0))
+
+        scrollView.scrollTo(0, 0)
+        stage.onViewportChanged()
+        awaitUntil { isStyled(editor, 0) }
+        assertFalse(isStyled(editor, editor.length() - 1))
+    }
+
+    private fun MarkwonMarkdownEditor.getIncrementalEditorStage() =
+        (javaClass.getDeclaredField("textWatcherPipeline").let {
+            it.isAccessible = true
+            return@let it.get(this)
+        } as TextWatcherPipeline).incrementalEditorStage
+
+    private fun isStyled(editor: MarkwonMarkdownEditor, position: Int) =
+        editor.text!!.getSpans(position, position, StrongEmphasisSpan::class.java).isNotEmpty()
+
+    /**
+     * Waits for the results of the background processing and applies them on the main thread
+     */
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!condition()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+            shadowOf(Looper.getMainLooper()).idle()
+        }
+    }
+}
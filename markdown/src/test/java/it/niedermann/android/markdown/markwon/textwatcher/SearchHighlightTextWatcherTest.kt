@@ -0,0 +1,62 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.text.Spanned
+import androidx.test.core.app.ApplicationProvider
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor
+import it.niedermann.android.markdown.model.SearchSpan
+import junit.framework.TestCase
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SearchHighlightTextWatcherTest : TestCase() {
+
+    private lateinit var editor: MarkwonMarkdownEditor
+
+    @Before
+    fun reset() {
+        editor = MarkwonMarkdownEditor(ApplicationProvider.getApplicationContext())
+    }
+
+    @Test
+    fun `should highlight all matches`() {
+        editor.setText("foo bar\nbar foo\nfoo")
+        editor.setSearchText("foo")
+        assertEquals(listOf(0 to 3, 12 to 15, 16 to 19), getSearchSpanRanges())
+    }
+
+    @Test
+    fun `should update highlights of edited lines`() {
+        editor.setText("foo bar\nbar foo\nfoo")
+        editor.setSearchText("foo")
+
+        editor.text!!.insert(11, "foo")
+        assertEquals(listOf(0 to 3, 11 to 14, 15 to 18, 19 to 22), getSearchSpanRanges())
+
+        editor.text!!.delete(0, 1)
+        assertEquals(listOf(10 to 13, 14 to 17, 18 to 21), getSearchSpanRanges())
+
+        editor.text!!.replace(17, 21, "\nFOO")
+        assertEquals(listOf(10 to 13, 14 to 17, 18 to 21), getSearchSpanRanges())
+    }
+
+    @Test
+    fun `should remove highlights when search text is cleared`() {
+        editor.setText("foo bar\nbar foo\nfoo")
+        editor.setSearchText("foo")
+        editor.setSearchText(null)
+        assertEquals(emptyList<Pair<Int, Int>>(), getSearchSpanRanges())
+
+        editor.text!!.insert(0, "foo")
+        assertEquals(emptyList<Pair<Int, Int>>(), getSearchSpanRanges())
+    }
+
+    private fun getSearchSpanRanges(): List<Pair<Int, Int>> {
+        val text = editor.text as Spanned
+        return text.getSpans(0, text.length, SearchSpan::class.java)
+            .map { text.getSpanStart(it) to text.getSpanEnd(it) }
+            .sortedBy { it.first }
+    }
+}
@@ -0,0 +1,50 @@
+package it.niedermann.android.markdown.remoteviews
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class RemoteViewElementsExtractorTest : TestCase() {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+
+    @Test
+    fun `should only report toggled checkbox as changed`() {
+        val extractor = RemoteViewElementsExtractor()
+        val initial = extractor.update(context, 1, "Foo\n- [ ] A\n- [ ] B\n")
+        assertEquals(4, initial.elements.size)
+        assertEquals(4, initial.changed.size)
+        assertEquals(listOf(0L, 1L, 2L, 3L), initial.elements.map { it.id })
+
+        val toggled = extractor.update(context, 1, "Foo\n- [ ] A\n- [x] B\n")
+        assertEquals(listOf(0L, 1L, 2L, 3L), toggled.elements.map { it.id })
+        assertEquals(1, toggled.changed.size)
+        assertEquals(3L, toggled.changed[0].id)
+        assertEquals(RemoteViewElement.Type.CHECKBOX_CHECKED, toggled.changed[0].element.type)
+        assertTrue(toggled.removedIds.isEmpty())
+
+        assertFalse(extractor.update(context, 1, "Foo\n- [ ] A\n- [x] B\n").hasChanges())
+    }
+
+    @Test
+    fun `should keep ids of moved elements and report removed ones`() {
+        val extractor = RemoteViewElementsExtractor()
+        extractor.update(context, 1, "Foo\n- [ ] A\n- [ ] B\n- [ ] C\n")
+
+        val removed = extractor.update(context, 1, "Foo\n- [ ] C\n")
+        assertEquals(listOf(0L, 5L), removed.elements.map { it.id })
+        assertEquals(listOf(1L, 2L, 3L, 4L), removed.removedIds)
+        assertEquals(listOf(5L), removed.changed.map { it.id })
+
+        val added = extractor.update(context, 1, "Foo\n- [ ] C\n- [ ] D\n")
+        assertEquals(listOf(0L, 5L, 6L, 7L), added.elements.map { it.id })
+        assertEquals(listOf(6L, 7L), added.changed.map { it.id })
+
+        val otherKey = extractor.update(context, 2, "Foo\n- [ ] C\n- [ ] D\n")
+        assertEquals(listOf(0L, 1L, 2L, 3L), otherKey.elements.map { it.id })
+    }
+}
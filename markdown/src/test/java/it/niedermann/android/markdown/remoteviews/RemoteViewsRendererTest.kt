@@ -0,0 +1,80 @@
+package it.niedermann.android.markdown.remoteviews
+
+import android.graphics.Typeface
+import android.text.style.QuoteSpan
+import android.text.style.RelativeSizeSpan
+import android.text.style.StyleSpan
+import android.text.style.TypefaceSpan
+import android.text.style.URLSpan
+import androidx.test.core.app.ApplicationProvider
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class RemoteViewsRendererTest : TestCase() {
+
+    private val renderer = RemoteViewsRenderer(ApplicationProvider.getApplicationContext())
+
+    @Test
+    fun `should render lists with prefixes and indention`() {
+        assertEquals(
+            "Foo\n\n• Bar\n\t\t3. Baz\n\t\t4. Qux\n• Done",
+            renderer.render(
+                """
+                Foo
+
+                - Bar
+
+                  3. Baz
+                  4. Qux
+                - Done
+                """.trimIndent()
+            ).toString()
+        )
+    }
+
+    @Test
+    fun `should only use spans supported by remote views`() {
+        val rendered = renderer.render(
+            """
+            # Heading
+
+            **bold** *italic* `code` [link](https://example.com)
+
+            > Quote
+            """.trimIndent()
+        )
+        assertEquals("Heading\n\nbold italic code link\n\nQuote", rendered.toString())
+
+        val heading = rendered.getSpans(0, 7, RelativeSizeSpan::class.java)
+        assertEquals(1, heading.size)
+        assertEquals(1.5f, heading[0].sizeChange)
+
+        val styles = rendered.getSpans(9, 20, StyleSpan::class.java)
+        assertEquals(2, styles.size)
+        assertEquals(setOf(Typeface.BOLD, Typeface.ITALIC), styles.map { it.style }.toSet())
+
+        val code = rendered.getSpans(0, rendered.length, TypefaceSpan::class.java)
+        assertEquals(1, code.size)
+        assertEquals("code", rendered.subSequence(rendered.getSpanStart(code[0]), rendered.getSpanEnd(code[0])).toString())
+
+        val links = rendered.getSpans(0, rendered.length, URLSpan::class.java)
+        assertEquals(1, links.size)
+        assertEquals("https://example.com", links[0].url)
+
+        val quotes = rendered.getSpans(0, rendered.length, QuoteSpan::class.java)
+        assertEquals(1, quotes.size)
+        assertEquals(rendered.length - 5, rendered.getSpanStart(quotes[0]))
+    }
+
+    @Test
+    fun `should return cached result for same content`() {
+        val cachingRenderer = RemoteViewsRenderer(ApplicationProvider.getApplicationContext(), 1024)
+        val first = cachingRenderer.render("**Foo**")
+        assertSame(first, cachingRenderer.render("**Foo**"))
+        cachingRenderer.clearCache()
+        assertNotSame(first, cachingRenderer.render("**Foo**"))
+    }
+}
@@ -0,0 +1,46 @@
+package it.niedermann.android.markdown.search
+
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CompiledSearchTest : TestCase() {
+
+    @Test
+    fun `should find all non overlapping matches case insensitive`() {
+        val search = CompiledSearch.compile("aa")
+        assertTrue(intArrayOf(0, 2, 4, 6).contentEquals(search.findAll("aaa aA")))
+        assertEquals(2, search.count("aaa aA"))
+        assertTrue(intArrayOf().contentEquals(search.findAll("a b")))
+        assertEquals(0, search.count("a b"))
+    }
+
+    @Test
+    fun `should find multiple terms at once`() {
+        val search = CompiledSearch.compile("foo", "bar")
+        assertTrue(intArrayOf(1, 4, 4, 7, 8, 11).contentEquals(search.findAll("xFOObarbfoo")))
+        assertEquals(3, search.count("xFOObarbfoo"))
+    }
+
+    @Test
+    fun `should respect the given region`() {
+        val search = CompiledSearch.compile("foo")
+        assertTrue(intArrayOf(4, 7).contentEquals(search.findAll("foo foo foo", 2, 9)))
+    }
+
+    @Test
+    fun `should fold non ASCII characters`() {
+        val search = CompiledSearch.compile("Äpfel")
+        assertTrue(intArrayOf(0, 5, 6, 11).contentEquals(search.findAll("äpfel ÄPFEL")))
+    }
+
+    @Test
+    fun `should ignore empty terms`() {
+        assertTrue(CompiledSearch.compile().isEmpty)
+        assertTrue(CompiledSearch.compile("").isEmpty)
+        assertTrue(CompiledSearch.compile("").findAll("foo").isEmpty())
+        assertFalse(CompiledSearch.compile("", "foo").isEmpty)
+    }
+}